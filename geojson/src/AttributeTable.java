@@ -0,0 +1,330 @@
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Attributes of a collection of features, stored by column.
+ *
+ * <p>
+ * The schema is inferred while rows are added: each property name becomes a column
+ * the first time it is seen, and the column takes the type of its first value. Integer
+ * and double columns hold primitive arrays; string columns hold an int code per row
+ * into a dictionary of distinct values, so repeated values are stored once. A column
+ * that receives values of different types falls back to boxed values. Property names
+ * are stored once per column rather than once per feature.
+ *
+ * <p>
+ * Each feature gets a lightweight read-only {@link Map} view over its row. Rows are
+ * added by a single thread; views can be read from any thread once the table is
+ * no longer being written.
+ */
+final class AttributeTable {
+
+  private static final byte TYPE_NONE = 0;
+  private static final byte TYPE_INT = 1;
+  private static final byte TYPE_DOUBLE = 2;
+  private static final byte TYPE_STRING = 3;
+  private static final byte TYPE_OBJECT = 4;
+
+  private final Map<String, Column> columns = new LinkedHashMap<String, Column>();
+  private int rowCount = 0;
+
+  /**
+   * @return the index of the new, empty row.
+   */
+  int addRow() {
+    return rowCount++;
+  }
+
+  /**
+   * Removes the last row added, for a feature that is rejected after its
+   * properties have been read.
+   */
+  void removeLastRow() {
+    if (rowCount == 0) {
+      return;
+    }
+    rowCount--;
+    for (Column column : columns.values()) {
+      column.clearPresent(rowCount);
+    }
+  }
+
+  int getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * @return the names of the columns, in the order they were first seen.
+   */
+  List<String> getFieldNames() {
+    return Collections.unmodifiableList(new ArrayList<String>(columns.keySet()));
+  }
+
+  void setInt(int row, String name, int value) {
+    column(name).setInt(row, value);
+  }
+
+  void setDouble(int row, String name, double value) {
+    column(name).setDouble(row, value);
+  }
+
+  void setString(int row, String name, String value) {
+    column(name).setString(row, value);
+  }
+
+  /**
+   * @return a read-only view over the values of a row.
+   */
+  Map<String, Object> row(int row) {
+    return new Row(row);
+  }
+
+  private Column column(String name) {
+    Column column = columns.get(name);
+    if (column == null) {
+      column = new Column();
+      columns.put(name, column);
+    }
+    return column;
+  }
+
+  /**
+   * The values of one property, with a presence bit per row since not every feature
+   * has every property.
+   */
+  private static final class Column {
+
+    private byte type = TYPE_NONE;
+    private long[] present = new long[1];
+    private int[] ints;
+    private double[] doubles;
+    private Object[] objects;
+    private Map<String, Integer> codes;
+    private List<String> dictionary;
+
+    void setInt(int row, int value) {
+      if (type == TYPE_NONE) {
+        type = TYPE_INT;
+        ints = new int[16];
+      }
+      if (type == TYPE_INT) {
+        ints = ensure(ints, row);
+        ints[row] = value;
+      } else {
+        setObject(row, Integer.valueOf(value));
+        return;
+      }
+      markPresent(row);
+    }
+
+    void setDouble(int row, double value) {
+      if (type == TYPE_NONE) {
+        type = TYPE_DOUBLE;
+        doubles = new double[16];
+      }
+      if (type == TYPE_DOUBLE) {
+        doubles = ensure(doubles, row);
+        doubles[row] = value;
+      } else {
+        setObject(row, Double.valueOf(value));
+        return;
+      }
+      markPresent(row);
+    }
+
+    void setString(int row, String value) {
+      if (type == TYPE_NONE) {
+        type = TYPE_STRING;
+        ints = new int[16];
+        codes = new HashMap<String, Integer>();
+        dictionary = new ArrayList<String>();
+      }
+      if (type == TYPE_STRING) {
+        Integer code = codes.get(value);
+        if (code == null) {
+          code = Integer.valueOf(dictionary.size());
+          codes.put(value, code);
+          dictionary.add(value);
+        }
+        ints = ensure(ints, row);
+        ints[row] = code.intValue();
+      } else {
+        setObject(row, value);
+        return;
+      }
+      markPresent(row);
+    }
+
+    private void setObject(int row, Object value) {
+      if (type != TYPE_OBJECT) {
+        toObjects(row);
+      }
+      objects = ensure(objects, row);
+      objects[row] = value;
+      markPresent(row);
+    }
+
+    /**
+     * Boxes the values of the rows before the given one, when a value of another
+     * type arrives in a typed column.
+     */
+    private void toObjects(int rows) {
+      Object[] boxed = new Object[Math.max(16, rows + 1)];
+      for (int row = 0; row < rows; row++) {
+        if (isPresent(row)) {
+          boxed[row] = get(row);
+        }
+      }
+      objects = boxed;
+      type = TYPE_OBJECT;
+      ints = null;
+      doubles = null;
+      codes = null;
+      dictionary = null;
+    }
+
+    boolean isPresent(int row) {
+      int word = row >>> 6;
+      return word < present.length && (present[word] & (1L << row)) != 0;
+    }
+
+    void clearPresent(int row) {
+      int word = row >>> 6;
+      if (word < present.length) {
+        present[word] &= ~(1L << row);
+      }
+    }
+
+    private void markPresent(int row) {
+      int word = row >>> 6;
+      if (word >= present.length) {
+        present = Arrays.copyOf(present, Math.max(word + 1, present.length * 2));
+      }
+      present[word] |= 1L << row;
+    }
+
+    Object get(int row) {
+      if (!isPresent(row)) {
+        return null;
+      }
+      switch (type) {
+        case TYPE_INT:
+          return Integer.valueOf(ints[row]);
+        case TYPE_DOUBLE:
+          return Double.valueOf(doubles[row]);
+        case TYPE_STRING:
+          return dictionary.get(ints[row]);
+        case TYPE_OBJECT:
+          return objects[row];
+        default:
+          return null;
+      }
+    }
+
+    private static int[] ensure(int[] values, int row) {
+      return row < values.length ? values : Arrays.copyOf(values, Math.max(row + 1, values.length * 2));
+    }
+
+    private static double[] ensure(double[] values, int row) {
+      return row < values.length ? values : Arrays.copyOf(values, Math.max(row + 1, values.length * 2));
+    }
+
+    private static Object[] ensure(Object[] values, int row) {
+      return row < values.length ? values : Arrays.copyOf(values, Math.max(row + 1, values.length * 2));
+    }
+  }
+
+  /**
+   * Read-only map view over one row. Only the columns with a value in the row
+   * are part of the map.
+   */
+  private final class Row extends AbstractMap<String, Object> {
+
+    private final int row;
+
+    Row(int row) {
+      this.row = row;
+    }
+
+    @Override
+    public Object get(Object key) {
+      Column column = columns.get(key);
+      return column == null ? null : column.get(row);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      Column column = columns.get(key);
+      return column != null && column.isPresent(row);
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+      return new AbstractSet<Map.Entry<String, Object>>() {
+        @Override
+        public Iterator<Map.Entry<String, Object>> iterator() {
+          return new RowIterator(row);
+        }
+
+        @Override
+        public int size() {
+          int size = 0;
+          for (Column column : columns.values()) {
+            if (column.isPresent(row)) {
+              size++;
+            }
+          }
+          return size;
+        }
+      };
+    }
+  }
+
+  private final class RowIterator implements Iterator<Map.Entry<String, Object>> {
+
+    private final int row;
+    private final Iterator<Map.Entry<String, Column>> columnIterator = columns.entrySet().iterator();
+    private Map.Entry<String, Object> next = null;
+
+    RowIterator(int row) {
+      this.row = row;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && columnIterator.hasNext()) {
+        Map.Entry<String, Column> column = columnIterator.next();
+        if (column.getValue().isPresent(row)) {
+          next = new AbstractMap.SimpleImmutableEntry<String, Object>(column.getKey(), column.getValue().get(row));
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public Map.Entry<String, Object> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Map.Entry<String, Object> entry = next;
+      next = null;
+      return entry;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,91 @@
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Recognizes gzip and zlib (deflate) compressed input by its first two bytes, and
+ * decompresses it as it is read.
+ *
+ * <p>
+ * Decompression is streamed: only the buffers of the decompressor are held in memory,
+ * never the decompressed text, and no temporary file is written. Input that is not
+ * compressed is returned as it is, so callers do not need to know how a file is stored.
+ * Raw deflate data, without the zlib header, cannot be recognized and is read as is.
+ */
+final class CompressedInput {
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  // first bytes of a gzip member
+  private static final int GZIP_MAGIC_1 = 0x1f;
+  private static final int GZIP_MAGIC_2 = 0x8b;
+
+  // compression method of a zlib header, in the low bits of its first byte
+  private static final int ZLIB_DEFLATE = 8;
+
+  private CompressedInput() { }
+
+  /**
+   * @return a stream over the decompressed content of the file, or over the file itself
+   * if it is not compressed.
+   */
+  static InputStream open(File file) throws IOException {
+    return decompress(new FileInputStream(file));
+  }
+
+  /**
+   * @return true if the file starts as a gzip or zlib stream.
+   */
+  static boolean isCompressed(File file) throws IOException {
+    try (InputStream in = new FileInputStream(file)) {
+      return isCompressed(in.read(), in.read());
+    }
+  }
+
+  /**
+   * Wraps a stream in a decompressor if it starts as a gzip or zlib stream. Closing
+   * the returned stream closes the given one.
+   *
+   * @param in a stream positioned at the start of the content.
+   * @return a stream over the decompressed content, or a buffered stream over the
+   * original content if it is not compressed.
+   */
+  static InputStream decompress(InputStream in) throws IOException {
+    if (!in.markSupported()) {
+      in = new BufferedInputStream(in, BUFFER_SIZE);
+    }
+    in.mark(2);
+    int b1 = in.read();
+    int b2 = in.read();
+    in.reset();
+    if (b1 == GZIP_MAGIC_1 && b2 == GZIP_MAGIC_2) {
+      // reads concatenated members as well, as written by parallel compressors
+      return new GZIPInputStream(in, BUFFER_SIZE);
+    }
+    if (isCompressed(b1, b2)) {
+      return new InflaterInputStream(in);
+    }
+    return in;
+  }
+
+  // ------------------------------------------------------------------------
+  // Private methods
+  // ------------------------------------------------------------------------
+
+  private static boolean isCompressed(int b1, int b2) {
+    if (b1 < 0 || b2 < 0) {
+      return false;
+    }
+    if (b1 == GZIP_MAGIC_1 && b2 == GZIP_MAGIC_2) {
+      return true;
+    }
+    // zlib header: deflate with a window of at most 32K, and a check value making
+    // the first two bytes a multiple of 31; JSON text never starts that way
+    return (b1 & 0x0f) == ZLIB_DEFLATE && (b1 >> 4) <= 7 && ((b1 << 8) | b2) % 31 == 0;
+  }
+}
@@ -0,0 +1,639 @@
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.MultiPoint;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.Polyline;
+
+/**
+ * Growable primitive arrays holding the positions of one GeoJSON geometry, together
+ * with the offsets at which its paths (line strings or rings) and polygons end.
+ *
+ * <p>
+ * Coordinates are read from the token stream straight into the arrays, and the
+ * geometry is then built from the arrays in a single pass, without creating a
+ * {@link Point} per vertex or a temporary geometry per part. A buffer is
+ * {@link #reset() reset} and reused for the next geometry, so once its arrays have
+ * grown to fit the largest geometry, decoding no longer allocates.
+ */
+final class CoordinateBuffer {
+
+  // positions
+  double[] x = new double[64];
+  double[] y = new double[64];
+  double[] z = new double[64];
+  int pointCount = 0;
+  boolean hasZ = false;
+
+  // index past the last position of each path
+  int[] pathEnds = new int[8];
+  int pathCount = 0;
+
+  // index past the last path of each polygon
+  int[] polygonEnds = new int[4];
+  int polygonCount = 0;
+
+  // twice the signed area of each path, positive when it winds counter-clockwise,
+  // summed while positions are added; stale once the positions have been simplified
+  private double[] pathAreas = new double[8];
+  private boolean pathAreasValid = true;
+
+  // first position of the current path, and twice its signed area so far
+  private int currentPathStart = 0;
+  private double currentPathArea = 0;
+
+  // scratch arrays of the simplification, allocated on first use
+  private boolean[] kept = null;
+  private int[] ranges = null;
+
+  // ------------------------------------------------------------------------
+  // Reading
+  // ------------------------------------------------------------------------
+
+  void reset() {
+    pointCount = 0;
+    pathCount = 0;
+    polygonCount = 0;
+    hasZ = false;
+    pathAreasValid = true;
+    currentPathStart = 0;
+    currentPathArea = 0;
+  }
+
+  /**
+   * Reads a "coordinates" value into this buffer, replacing its content. The nesting
+   * depth of the arrays tells where paths and polygons end, so the geometry type does
+   * not need to be known in advance. The parser must be positioned on the opening
+   * bracket; on return it is positioned on the matching closing bracket.
+   *
+   * @param parser the token parser.
+   * @throws IOException
+   */
+  void read(JsonParser parser) throws IOException {
+    reset();
+    if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+      parser.skipChildren();
+      return;
+    }
+    readArray(parser);
+  }
+
+  /**
+   * @return the nesting depth of the array: 1 for a position, 2 for a list of positions,
+   * 3 for a list of paths and 4 for a list of polygons.
+   */
+  private int readArray(JsonParser parser) throws IOException {
+    JsonToken token = parser.nextToken();
+    if (token == JsonToken.VALUE_NUMBER_FLOAT || token == JsonToken.VALUE_NUMBER_INT) {
+      readPosition(parser);
+      return 1;
+    }
+    int childDepth = 0;
+    while (token == JsonToken.START_ARRAY) {
+      childDepth = Math.max(childDepth, readArray(parser));
+      token = parser.nextToken();
+    }
+    skipToEndOfArray(parser, token);
+    if (childDepth == 1) {
+      endPath();
+    } else if (childDepth == 2) {
+      endPolygon();
+    }
+    return childDepth + 1;
+  }
+
+  /**
+   * [x, y] or [x, y, z]; any further ordinates are ignored.
+   */
+  private void readPosition(JsonParser parser) throws IOException {
+    double px = DecimalLexer.readDouble(parser);
+    JsonToken token = parser.nextToken();
+    if (!isNumber(token)) {
+      skipToEndOfArray(parser, token);
+      return;
+    }
+    double py = DecimalLexer.readDouble(parser);
+    token = parser.nextToken();
+    if (isNumber(token)) {
+      addPoint(px, py, DecimalLexer.readDouble(parser));
+      token = parser.nextToken();
+    } else {
+      addPoint(px, py);
+    }
+    skipToEndOfArray(parser, token);
+  }
+
+  /**
+   * Reads the paths of a geometry into this buffer, replacing its content. Only x and
+   * y are read.
+   *
+   * @param g a polyline or polygon.
+   */
+  void read(MultiPath g) {
+    reset();
+    Point scratch = new Point();
+    for (int path = 0; path < g.getPathCount(); path++) {
+      int end = g.getPathEnd(path);
+      for (int i = g.getPathStart(path); i < end; i++) {
+        g.getPoint(i, scratch);
+        addPoint(scratch.getX(), scratch.getY());
+      }
+      endPath();
+    }
+  }
+
+  private static void skipToEndOfArray(JsonParser parser, JsonToken token) throws IOException {
+    while (token != JsonToken.END_ARRAY && token != null) {
+      parser.skipChildren();
+      token = parser.nextToken();
+    }
+  }
+
+  private static boolean isNumber(JsonToken token) {
+    return token == JsonToken.VALUE_NUMBER_FLOAT || token == JsonToken.VALUE_NUMBER_INT;
+  }
+
+  void addPoint(double px, double py) {
+    ensurePointCapacity(pointCount + 1);
+    addArea(px, py);
+    x[pointCount] = px;
+    y[pointCount] = py;
+    if (hasZ) {
+      z[pointCount] = 0;
+    }
+    pointCount++;
+  }
+
+  void addPoint(double px, double py, double pz) {
+    ensurePointCapacity(pointCount + 1);
+    if (!hasZ) {
+      Arrays.fill(z, 0, pointCount, 0);
+      hasZ = true;
+    }
+    addArea(px, py);
+    x[pointCount] = px;
+    y[pointCount] = py;
+    z[pointCount] = pz;
+    pointCount++;
+  }
+
+  /**
+   * Adds the edge from the last position of the current path to the given position
+   * to the signed area of the path, with the shoelace formula. Positions are taken
+   * relative to the first position of the path, which keeps the products small.
+   */
+  private void addArea(double px, double py) {
+    int last = pointCount - 1;
+    if (last > currentPathStart) {
+      double x0 = x[currentPathStart];
+      double y0 = y[currentPathStart];
+      currentPathArea += (x[last] - x0) * (py - y0) - (px - x0) * (y[last] - y0);
+    }
+  }
+
+  void endPath() {
+    if (pathCount == pathEnds.length) {
+      pathEnds = Arrays.copyOf(pathEnds, pathCount * 2);
+      pathAreas = Arrays.copyOf(pathAreas, pathCount * 2);
+    }
+    pathAreas[pathCount] = currentPathArea;
+    pathEnds[pathCount++] = pointCount;
+    currentPathStart = pointCount;
+    currentPathArea = 0;
+  }
+
+  void endPolygon() {
+    if (polygonCount == polygonEnds.length) {
+      polygonEnds = Arrays.copyOf(polygonEnds, polygonCount * 2);
+    }
+    polygonEnds[polygonCount++] = pathCount;
+  }
+
+  void ensurePointCapacity(int capacity) {
+    if (capacity > x.length) {
+      int newCapacity = Math.max(capacity, x.length * 2);
+      x = Arrays.copyOf(x, newCapacity);
+      y = Arrays.copyOf(y, newCapacity);
+      z = Arrays.copyOf(z, newCapacity);
+    }
+  }
+
+  /**
+   * Tests whether the bounding box of the positions intersects a rectangle.
+   * @return false if there are no positions or the boxes are disjoint.
+   */
+  boolean intersects(double xmin, double ymin, double xmax, double ymax) {
+    if (pointCount == 0) {
+      return false;
+    }
+    double minX = x[0];
+    double minY = y[0];
+    double maxX = minX;
+    double maxY = minY;
+    for (int i = 1; i < pointCount; i++) {
+      double px = x[i];
+      double py = y[i];
+      if (px < minX) {
+        minX = px;
+      } else if (px > maxX) {
+        maxX = px;
+      }
+      if (py < minY) {
+        minY = py;
+      } else if (py > maxY) {
+        maxY = py;
+      }
+    }
+    return minX <= xmax && maxX >= xmin && minY <= ymax && maxY >= ymin;
+  }
+
+  int pathStart(int path) {
+    return path == 0 ? 0 : pathEnds[path - 1];
+  }
+
+  int pathEnd(int path) {
+    return pathEnds[path];
+  }
+
+  // ------------------------------------------------------------------------
+  // Orientation
+  // ------------------------------------------------------------------------
+
+  /**
+   * Winds the rings of each polygon the way Esri polygons expect them: the first ring
+   * of each polygon, its exterior, clockwise, and its holes counter-clockwise. GeoJSON
+   * (RFC 7946) winds them the other way round, and older files in either direction.
+   * A ring is reversed in place when the sign of its area, summed while it was read,
+   * is wrong, so the polygon does not need to be simplified to fix its rings.
+   * Rings without area are left as they are. Paths that are not part of a polygon
+   * are taken as exteriors.
+   */
+  void orientRings() {
+    int path = 0;
+    for (int polygon = 0; polygon <= polygonCount && path < pathCount; polygon++) {
+      int polygonEnd = polygon < polygonCount ? polygonEnds[polygon] : pathCount;
+      for (int first = path; path < polygonEnd; path++) {
+        double area = pathAreasValid ? pathAreas[path] : signedArea(path);
+        boolean exterior = path == first;
+        if (exterior ? area > 0 : area < 0) {
+          reverse(pathStart(path), pathEnd(path));
+          pathAreas[path] = -area;
+        }
+      }
+    }
+  }
+
+  /**
+   * @return true if a path winds clockwise, as the exterior rings of Esri polygons do.
+   */
+  boolean isClockwise(int path) {
+    return (pathAreasValid ? pathAreas[path] : signedArea(path)) < 0;
+  }
+
+  /**
+   * @return twice the signed area of a path, positive when it winds counter-clockwise.
+   */
+  private double signedArea(int path) {
+    int start = pathStart(path);
+    int end = pathEnd(path);
+    double area = 0;
+    for (int i = start + 2; i < end; i++) {
+      area += (x[i - 1] - x[start]) * (y[i] - y[start]) - (x[i] - x[start]) * (y[i - 1] - y[start]);
+    }
+    return area;
+  }
+
+  private void reverse(int start, int end) {
+    for (int i = start, j = end - 1; i < j; i++, j--) {
+      swap(x, i, j);
+      swap(y, i, j);
+      if (hasZ) {
+        swap(z, i, j);
+      }
+    }
+  }
+
+  private static void swap(double[] values, int i, int j) {
+    double value = values[i];
+    values[i] = values[j];
+    values[j] = value;
+  }
+
+  // ------------------------------------------------------------------------
+  // Simplification
+  // ------------------------------------------------------------------------
+
+  /**
+   * Simplifies each path in place with the Douglas-Peucker algorithm: a vertex is
+   * removed if it lies within the tolerance of the simplified outline. The first and
+   * last vertex of each path are always kept. Rings are split at the vertex farthest
+   * from their first vertex, since their end points coincide, and always keep at least
+   * three distinct vertices, so that small rings such as islands shrink to a triangle 
+   * rather than collapse. Polygon boundaries are unchanged since they refer to paths.
+   *
+   * @param tolerance largest distance of a removed vertex to the simplified path, 
+   * in the units of the coordinates.
+   * @param rings true if the paths are polygon rings.
+   */
+  void simplify(double tolerance, boolean rings) {
+    if (pathCount == 0 || tolerance <= 0) {
+      return;
+    }
+    if (kept == null || kept.length < pointCount) {
+      kept = new boolean[Math.max(pointCount, 64)];
+    }
+    Arrays.fill(kept, 0, pointCount, false);
+    double tolerance2 = tolerance * tolerance;
+    int start = 0;
+    int write = 0;
+    for (int path = 0; path < pathCount; path++) {
+      int end = pathEnds[path];
+      if (rings) {
+        markRing(start, end, tolerance2);
+      } else {
+        markPath(start, end, tolerance2);
+      }
+      for (int i = start; i < end; i++) {
+        if (kept[i]) {
+          x[write] = x[i];
+          y[write] = y[i];
+          z[write] = z[i];
+          write++;
+        }
+      }
+      pathEnds[path] = write;
+      start = end;
+    }
+    pointCount = write;
+    pathAreasValid = false;
+  }
+
+  private void markPath(int start, int end, double tolerance2) {
+    if (end - start <= 2) {
+      Arrays.fill(kept, start, end, true);
+      return;
+    }
+    kept[start] = true;
+    kept[end - 1] = true;
+    markRange(start, end - 1, tolerance2, null);
+  }
+
+  private void markRing(int start, int end, double tolerance2) {
+    int last = end - 1;
+    boolean closed = x[start] == x[last] && y[start] == y[last];
+    int minimum = closed ? 4 : 3;
+    if (end - start <= minimum) {
+      Arrays.fill(kept, start, end, true);
+      return;
+    }
+    int far = start;
+    double farDistance2 = -1;
+    for (int i = start + 1; i < last; i++) {
+      double dx = x[i] - x[start];
+      double dy = y[i] - y[start];
+      double d2 = dx * dx + dy * dy;
+      if (d2 > farDistance2) {
+        far = i;
+        farDistance2 = d2;
+      }
+    }
+    kept[start] = true;
+    kept[far] = true;
+    kept[last] = true;
+    markRange(start, far, tolerance2, null);
+    markRange(far, last, tolerance2, null);
+    int count = 0;
+    for (int i = start; i < end; i++) {
+      if (kept[i]) {
+        count++;
+      }
+    }
+    if (count < minimum) {
+      // keep the vertex farthest from the split line, so the ring keeps an area
+      int apex = farthestFromSegment(start + 1, last, start, far);
+      if (apex >= 0) {
+        kept[apex] = true;
+      }
+    }
+  }
+
+  /**
+   * Computes the importance of each vertex for the Douglas-Peucker algorithm: the
+   * squared distance at which the vertex is kept, so that simplifying to a tolerance
+   * amounts to keeping the vertices whose importance is at least its square. The
+   * vertices that {@link #simplify(double, boolean)} always keeps, including three
+   * distinct vertices per ring, have an infinite importance.
+   *
+   * @param rings true if the paths are polygon rings.
+   * @return the importance of each position.
+   */
+  double[] importance(boolean rings) {
+    double[] importance = new double[pointCount];
+    if (kept == null || kept.length < pointCount) {
+      kept = new boolean[Math.max(pointCount, 64)];
+    }
+    Arrays.fill(kept, 0, pointCount, false);
+    int start = 0;
+    for (int path = 0; path < pathCount; path++) {
+      int end = pathEnds[path];
+      int last = end - 1;
+      if (end - start <= (rings ? 4 : 2)) {
+        Arrays.fill(importance, start, end, Double.POSITIVE_INFINITY);
+      } else if (rings) {
+        int far = start;
+        double farDistance2 = -1;
+        for (int i = start + 1; i < last; i++) {
+          double dx = x[i] - x[start];
+          double dy = y[i] - y[start];
+          double d2 = dx * dx + dy * dy;
+          if (d2 > farDistance2) {
+            far = i;
+            farDistance2 = d2;
+          }
+        }
+        kept[start] = true;
+        kept[far] = true;
+        kept[last] = true;
+        int apex = farthestFromSegment(start + 1, last, start, far);
+        markRange(start, far, -1, importance);
+        markRange(far, last, -1, importance);
+        importance[start] = Double.POSITIVE_INFINITY;
+        importance[far] = Double.POSITIVE_INFINITY;
+        importance[last] = Double.POSITIVE_INFINITY;
+        if (apex >= 0) {
+          importance[apex] = Double.POSITIVE_INFINITY;
+        }
+      } else {
+        importance[start] = Double.POSITIVE_INFINITY;
+        importance[last] = Double.POSITIVE_INFINITY;
+        markRange(start, last, -1, importance);
+      }
+      start = end;
+    }
+    return importance;
+  }
+
+  /**
+   * Marks the vertices strictly between two kept vertices that must be kept, and
+   * records their squared distance to the simplified outline if importance is not null.
+   * Ranges are processed from an explicit stack, since rings can have many
+   * thousands of vertices.
+   */
+  private void markRange(int first, int last, double tolerance2, double[] importance) {
+    int top = 0;
+    ranges = ensureRanges(top + 2);
+    ranges[top++] = first;
+    ranges[top++] = last;
+    while (top > 0) {
+      int b = ranges[--top];
+      int a = ranges[--top];
+      int index = -1;
+      double max = tolerance2;
+      for (int i = a + 1; i < b; i++) {
+        double d2 = segmentDistance2(i, a, b);
+        if (d2 > max) {
+          index = i;
+          max = d2;
+        }
+      }
+      if (index >= 0) {
+        kept[index] = true;
+        if (importance != null) {
+          importance[index] = max;
+        }
+        ranges = ensureRanges(top + 4);
+        ranges[top++] = a;
+        ranges[top++] = index;
+        ranges[top++] = index;
+        ranges[top++] = b;
+      }
+    }
+  }
+
+  private int farthestFromSegment(int from, int to, int a, int b) {
+    int index = -1;
+    double max = 0;
+    for (int i = from; i < to; i++) {
+      double d2 = segmentDistance2(i, a, b);
+      if (!kept[i] && d2 > max) {
+        index = i;
+        max = d2;
+      }
+    }
+    return index;
+  }
+
+  private int[] ensureRanges(int capacity) {
+    if (ranges == null) {
+      return new int[Math.max(capacity, 64)];
+    }
+    return capacity <= ranges.length ? ranges : Arrays.copyOf(ranges, Math.max(capacity, ranges.length * 2));
+  }
+
+  /**
+   * @return the squared distance from vertex i to the segment between vertices a and b.
+   */
+  private double segmentDistance2(int i, int a, int b) {
+    double dx = x[b] - x[a];
+    double dy = y[b] - y[a];
+    double px = x[i] - x[a];
+    double py = y[i] - y[a];
+    double length2 = dx * dx + dy * dy;
+    if (length2 > 0) {
+      double t = (px * dx + py * dy) / length2;
+      if (t >= 1) {
+        px = x[i] - x[b];
+        py = y[i] - y[b];
+      } else if (t > 0) {
+        px -= t * dx;
+        py -= t * dy;
+      }
+    }
+    return px * px + py * py;
+  }
+
+  // ------------------------------------------------------------------------
+  // Building geometries
+  // ------------------------------------------------------------------------
+
+  /**
+   * @return the first position as a point, or an empty point.
+   */
+  Point toPoint() {
+    Point p = new Point();
+    if (pointCount > 0) {
+      p.setXY(x[0], y[0]);
+      if (hasZ) {
+        p.setZ(z[0]);
+      }
+    }
+    return p;
+  }
+
+  /**
+   * @return all positions as a multipoint.
+   */
+  MultiPoint toMultiPoint() {
+    MultiPoint g = new MultiPoint();
+    Point scratch = hasZ ? new Point() : null;
+    for (int i = 0; i < pointCount; i++) {
+      if (scratch != null) {
+        scratch.setXY(x[i], y[i]);
+        scratch.setZ(z[i]);
+        g.add(scratch);
+      } else {
+        g.add(x[i], y[i]);
+      }
+    }
+    return g;
+  }
+
+  /**
+   * @return all paths as the paths of one polyline.
+   */
+  Polyline toPolyline() {
+    Polyline g = new Polyline();
+    addPaths(g);
+    return g;
+  }
+
+  /**
+   * @return all paths, of all polygons, as the rings of one polygon.
+   */
+  Polygon toPolygon() {
+    Polygon g = new Polygon();
+    addPaths(g);
+    g.closeAllPaths();
+    return g;
+  }
+
+  private void addPaths(MultiPath g) {
+    // a single point is reused to carry z values, the multipath copies it
+    Point scratch = hasZ ? new Point() : null;
+    for (int path = 0; path < pathCount; path++) {
+      int start = pathStart(path);
+      int end = pathEnd(path);
+      for (int i = start; i < end; i++) {
+        if (scratch != null) {
+          scratch.setXY(x[i], y[i]);
+          scratch.setZ(z[i]);
+          if (i == start) {
+            g.startPath(scratch);
+          } else {
+            g.lineTo(scratch);
+          }
+        } else if (i == start) {
+          g.startPath(x[i], y[i]);
+        } else {
+          g.lineTo(x[i], y[i]);
+        }
+      }
+    }
+  }
+}
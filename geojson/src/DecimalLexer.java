@@ -0,0 +1,138 @@
+import java.io.IOException;
+
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+/**
+ * Converts the text of JSON numbers to doubles, straight from the character buffer
+ * of the token parser.
+ *
+ * <p>
+ * Most of the text of a large GeoJSON file is coordinates, and the token parser turns
+ * each fractional number into a String before handing it to {@link Double#parseDouble(String)},
+ * which is general but slow. Coordinates are almost always short decimals, such as
+ * "-73.985428", whose digits fit in 53 bits and whose power of ten is exactly
+ * representable as a double. For those, the value is one multiplication or division
+ * of two exact doubles, which is correctly rounded (Clinger's fast path). Any other
+ * number, for example one with 17 significant digits or a large exponent, falls back
+ * to {@link Double#parseDouble(String)}, so the result is always the same.
+ */
+final class DecimalLexer {
+
+  // largest integer below which all integers are exact doubles
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  // powers of ten that are exact doubles
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
+  // digits beyond which a mantissa may overflow a long
+  private static final int MAX_DIGITS = 18;
+
+  private DecimalLexer() { }
+
+  /**
+   * Reads the value of the current number token of a parser.
+   *
+   * @param parser a parser positioned on a VALUE_NUMBER_INT or VALUE_NUMBER_FLOAT token.
+   * @return the value of the number.
+   */
+  static double readDouble(JsonParser parser) throws IOException {
+    if (parser.getCurrentToken() == JsonToken.VALUE_NUMBER_FLOAT) {
+      return parseDouble(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+    }
+    // integers are already decoded without a String by the token parser
+    return parser.getDoubleValue();
+  }
+
+  /**
+   * Converts the text of a JSON number to the nearest double.
+   *
+   * @param text characters holding the number.
+   * @param offset index of the first character of the number.
+   * @param length number of characters of the number.
+   * @return the same value as {@link Double#parseDouble(String)}.
+   * @throws NumberFormatException if the text is not a number.
+   */
+  static double parseDouble(char[] text, int offset, int length) {
+    int end = offset + length;
+    int i = offset;
+    boolean negative = i < end && text[i] == '-';
+    if (negative) {
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int exponent = 0;
+    int start = i;
+    for (; i < end && isDigit(text[i]); i++) {
+      if (mantissa != 0 || text[i] != '0') {
+        if (++digits > MAX_DIGITS) {
+          return fallback(text, offset, length);
+        }
+        mantissa = mantissa * 10 + (text[i] - '0');
+      }
+    }
+    int integerDigits = i - start;
+    int fractionDigits = 0;
+    if (i < end && text[i] == '.') {
+      for (i++; i < end && isDigit(text[i]); i++, fractionDigits++) {
+        if (mantissa != 0 || text[i] != '0') {
+          if (++digits > MAX_DIGITS) {
+            return fallback(text, offset, length);
+          }
+          mantissa = mantissa * 10 + (text[i] - '0');
+        }
+      }
+      if (fractionDigits == 0) {
+        return fallback(text, offset, length);
+      }
+    }
+    if (integerDigits == 0) {
+      return fallback(text, offset, length);
+    }
+    exponent -= fractionDigits;
+    if (i < end && (text[i] == 'e' || text[i] == 'E')) {
+      i++;
+      boolean negativeExponent = i < end && text[i] == '-';
+      if (i < end && (text[i] == '-' || text[i] == '+')) {
+        i++;
+      }
+      int exponentStart = i;
+      int value = 0;
+      for (; i < end && isDigit(text[i]) && i - exponentStart < 4; i++) {
+        value = value * 10 + (text[i] - '0');
+      }
+      if (i == exponentStart) {
+        return fallback(text, offset, length);
+      }
+      exponent += negativeExponent ? -value : value;
+    }
+    if (i != end) {
+      // trailing characters, or an exponent too long for the fast path
+      return fallback(text, offset, length);
+    }
+    if (mantissa == 0) {
+      return negative ? -0.0 : 0.0;
+    }
+    if (mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+      return fallback(text, offset, length);
+    }
+    double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+    return negative ? -value : value;
+  }
+
+  // ------------------------------------------------------------------------
+  // Private methods
+  // ------------------------------------------------------------------------
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static double fallback(char[] text, int offset, int length) {
+    return Double.parseDouble(new String(text, offset, length));
+  }
+}
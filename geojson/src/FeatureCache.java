@@ -0,0 +1,428 @@
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.MultiPoint;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.map.Feature;
+import com.esri.core.map.Graphic;
+import com.esri.core.symbol.Symbol;
+
+/**
+ * A binary sidecar file holding the decoded features of a GeoJSON file, so that
+ * later loads rebuild the geometries without parsing any JSON.
+ *
+ * <p>
+ * The cache is written next to the source file, with the extension ".cache", and is
+ * valid as long as the size and modification time of the source and the well-known
+ * ID of the output spatial reference are unchanged. Coordinates are stored already
+ * projected. The file is made of fixed-width sections, read through a memory mapping:
+ * <pre>
+ * header      magic, version, source size, source time, output wkid, section counts
+ * features    per feature: geometry type (byte), part count (int), attribute count (int)
+ * parts       per part: point count (int)
+ * coordinates per point: x, y (double)
+ * attributes  per attribute: name (int), type (byte), value (long)
+ * strings     attribute names and string values: length (int), UTF-8 bytes
+ * </pre>
+ */
+final class FeatureCache {
+
+  private static final int MAGIC = 0x474a4331;
+  private static final int VERSION = 2;
+  private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4 + 8 + 8 + 4;
+  private static final int FEATURE_SIZE = 1 + 4 + 4;
+  private static final int PART_SIZE = 4;
+  private static final int POINT_SIZE = 8 + 8;
+  private static final int ATTRIBUTE_SIZE = 4 + 1 + 8;
+
+  private static final byte TYPE_NONE = 0;
+  private static final byte TYPE_POINT = 1;
+  private static final byte TYPE_MULTI_POINT = 2;
+  private static final byte TYPE_POLYLINE = 3;
+  private static final byte TYPE_POLYGON = 4;
+
+  private static final byte VALUE_INT = 1;
+  private static final byte VALUE_DOUBLE = 2;
+  private static final byte VALUE_STRING = 3;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private FeatureCache() { }
+
+  static File cacheFileFor(File source) {
+    return new File(source.getPath() + ".cache");
+  }
+
+  // ------------------------------------------------------------------------
+  // Reading
+  // ------------------------------------------------------------------------
+
+  /**
+   * Reads the cached features of a source file.
+   *
+   * @param source the GeoJSON file.
+   * @param outWkid well-known ID of the spatial reference of the features.
+   * @param symbol symbol of the features.
+   * @return the features, or null if there is no valid cache for the source.
+   */
+  static List<Feature> read(File source, int outWkid, Symbol symbol) {
+    File file = cacheFileFor(source);
+    if (!file.isFile() || file.length() > Integer.MAX_VALUE) {
+      return null;
+    }
+    try {
+      MappedByteBuffer buffer;
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try {
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      } finally {
+        channel.close();
+      }
+      if (buffer.limit() < HEADER_SIZE
+          || buffer.getInt(0) != MAGIC
+          || buffer.getInt(4) != VERSION
+          || buffer.getLong(8) != source.length()
+          || buffer.getLong(16) != source.lastModified()
+          || buffer.getInt(24) != outWkid) {
+        return null;
+      }
+      return readFeatures(buffer, symbol);
+    } catch (Exception ex) {
+      // a damaged cache is rebuilt from the source
+      return null;
+    }
+  }
+
+  private static List<Feature> readFeatures(ByteBuffer buffer, Symbol symbol) {
+    int featureCount = buffer.getInt(28);
+    int partCount = buffer.getInt(32);
+    long pointCount = buffer.getLong(36);
+    long attributeCount = buffer.getLong(44);
+    int stringCount = buffer.getInt(52);
+
+    int featuresAt = HEADER_SIZE;
+    int partsAt = featuresAt + featureCount * FEATURE_SIZE;
+    int pointsAt = partsAt + partCount * PART_SIZE;
+    int attributesAt = (int) (pointsAt + pointCount * POINT_SIZE);
+    int stringsAt = (int) (attributesAt + attributeCount * ATTRIBUTE_SIZE);
+
+    String[] strings = new String[stringCount];
+    int at = stringsAt;
+    for (int i = 0; i < stringCount; i++) {
+      int length = buffer.getInt(at);
+      byte[] bytes = new byte[length];
+      ByteBuffer view = buffer.duplicate();
+      view.position(at + 4);
+      view.get(bytes);
+      strings[i] = new String(bytes, UTF8);
+      at += 4 + length;
+    }
+
+    List<Feature> features = new LinkedList<Feature>();
+    CoordinateBuffer coordinates = new CoordinateBuffer();
+    int part = 0;
+    int point = 0;
+    int attribute = 0;
+    for (int f = 0; f < featureCount; f++) {
+      int featureAt = featuresAt + f * FEATURE_SIZE;
+      byte type = buffer.get(featureAt);
+      int parts = buffer.getInt(featureAt + 1);
+      int attributes = buffer.getInt(featureAt + 5);
+
+      coordinates.reset();
+      for (int p = 0; p < parts; p++, part++) {
+        int points = buffer.getInt(partsAt + part * PART_SIZE);
+        coordinates.ensurePointCapacity(coordinates.pointCount + points);
+        for (int i = 0; i < points; i++, point++) {
+          int pointAt = pointsAt + point * POINT_SIZE;
+          coordinates.addPoint(buffer.getDouble(pointAt), buffer.getDouble(pointAt + 8));
+        }
+        coordinates.endPath();
+      }
+
+      Map<String, Object> values = new HashMap<String, Object>();
+      for (int a = 0; a < attributes; a++, attribute++) {
+        int attributeAt = attributesAt + attribute * ATTRIBUTE_SIZE;
+        String name = strings[buffer.getInt(attributeAt)];
+        byte valueType = buffer.get(attributeAt + 4);
+        long value = buffer.getLong(attributeAt + 5);
+        if (valueType == VALUE_INT) {
+          values.put(name, Integer.valueOf((int) value));
+        } else if (valueType == VALUE_DOUBLE) {
+          values.put(name, Double.valueOf(Double.longBitsToDouble(value)));
+        } else if (valueType == VALUE_STRING) {
+          values.put(name, strings[(int) value]);
+        }
+      }
+      features.add(new Graphic(buildGeometry(type, coordinates), symbol, values));
+    }
+    return features;
+  }
+
+  private static Geometry buildGeometry(byte type, CoordinateBuffer coordinates) {
+    switch (type) {
+      case TYPE_POINT:
+        return coordinates.toPoint();
+      case TYPE_MULTI_POINT:
+        return coordinates.toMultiPoint();
+      case TYPE_POLYLINE:
+        return coordinates.toPolyline();
+      case TYPE_POLYGON:
+        return coordinates.toPolygon();
+      default:
+        return null;
+    }
+  }
+
+  // ------------------------------------------------------------------------
+  // Writing
+  // ------------------------------------------------------------------------
+
+  /**
+   * Opens a writer for the cache of a source file. Features are appended one at a
+   * time, so the cache can be written while features are being streamed.
+   *
+   * @param source the GeoJSON file.
+   * @param outWkid well-known ID of the spatial reference of the features.
+   * @return a writer.
+   * @throws IOException
+   */
+  static Writer openWriter(File source, int outWkid) throws IOException {
+    return new Writer(source, outWkid);
+  }
+
+  /**
+   * Writes each section to its own temporary file, then joins the sections into the
+   * cache file on {@link #commit()}. Nothing is left behind by {@link #abort()}.
+   */
+  static final class Writer {
+
+    private final File source;
+    private final long sourceLength;
+    private final long sourceModified;
+    private final int outWkid;
+
+    private final File[] sectionFiles = new File[4];
+    private final DataOutputStream features;
+    private final DataOutputStream parts;
+    private final DataOutputStream points;
+    private final DataOutputStream attributes;
+
+    private final Map<String, Integer> stringIndex = new HashMap<String, Integer>();
+    private final List<String> strings = new ArrayList<String>();
+
+    private int featureCount = 0;
+    private int partCount = 0;
+    private long pointCount = 0;
+    private long attributeCount = 0;
+    private boolean closed = false;
+
+    private Writer(File source, int outWkid) throws IOException {
+      this.source = source;
+      this.sourceLength = source.length();
+      this.sourceModified = source.lastModified();
+      this.outWkid = outWkid;
+      File dir = source.getAbsoluteFile().getParentFile();
+      try {
+        for (int i = 0; i < sectionFiles.length; i++) {
+          sectionFiles[i] = File.createTempFile(source.getName(), ".part", dir);
+        }
+      } catch (IOException ex) {
+        // for example a full disk after the first sections were created
+        deleteSections();
+        throw ex;
+      }
+      features = open(sectionFiles[0]);
+      parts = open(sectionFiles[1]);
+      points = open(sectionFiles[2]);
+      attributes = open(sectionFiles[3]);
+    }
+
+    private static DataOutputStream open(File file) throws IOException {
+      return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+    }
+
+    void add(Feature feature) throws IOException {
+      Geometry g = feature.getGeometry();
+      int partsBefore = partCount;
+      byte type = TYPE_NONE;
+      if (g instanceof Point) {
+        type = TYPE_POINT;
+        Point p = (Point) g;
+        addPart(1);
+        addPoint(p.getX(), p.getY());
+      } else if (g instanceof MultiPoint) {
+        type = TYPE_MULTI_POINT;
+        MultiPoint multiPoint = (MultiPoint) g;
+        addPart(multiPoint.getPointCount());
+        for (int i = 0; i < multiPoint.getPointCount(); i++) {
+          Point p = multiPoint.getPoint(i);
+          addPoint(p.getX(), p.getY());
+        }
+      } else if (g instanceof MultiPath) {
+        type = g instanceof Polygon ? TYPE_POLYGON : TYPE_POLYLINE;
+        MultiPath multiPath = (MultiPath) g;
+        for (int path = 0; path < multiPath.getPathCount(); path++) {
+          int start = multiPath.getPathStart(path);
+          int end = multiPath.getPathEnd(path);
+          addPart(end - start);
+          for (int i = start; i < end; i++) {
+            Point p = multiPath.getPoint(i);
+            addPoint(p.getX(), p.getY());
+          }
+        }
+      }
+
+      int attributesBefore = (int) attributeCount;
+      Map<String, Object> values = feature.getAttributes();
+      if (values != null) {
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+          addAttribute(entry.getKey(), entry.getValue());
+        }
+      }
+
+      features.writeByte(type);
+      features.writeInt(partCount - partsBefore);
+      features.writeInt((int) attributeCount - attributesBefore);
+      featureCount++;
+    }
+
+    private void addPart(int points) throws IOException {
+      parts.writeInt(points);
+      partCount++;
+    }
+
+    private void addPoint(double x, double y) throws IOException {
+      points.writeDouble(x);
+      points.writeDouble(y);
+      pointCount++;
+    }
+
+    private void addAttribute(String name, Object value) throws IOException {
+      byte type;
+      long bits;
+      if (value instanceof Integer) {
+        type = VALUE_INT;
+        bits = ((Integer) value).intValue();
+      } else if (value instanceof Double) {
+        type = VALUE_DOUBLE;
+        bits = Double.doubleToRawLongBits(((Double) value).doubleValue());
+      } else if (value instanceof String) {
+        type = VALUE_STRING;
+        bits = indexOf((String) value);
+      } else {
+        return;
+      }
+      attributes.writeInt(indexOf(name));
+      attributes.writeByte(type);
+      attributes.writeLong(bits);
+      attributeCount++;
+    }
+
+    private int indexOf(String s) {
+      Integer index = stringIndex.get(s);
+      if (index == null) {
+        index = Integer.valueOf(strings.size());
+        stringIndex.put(s, index);
+        strings.add(s);
+      }
+      return index.intValue();
+    }
+
+    /**
+     * Joins the sections into the cache file, replacing any previous cache. The
+     * cache is not written if the source changed while it was being read.
+     * @throws IOException
+     */
+    void commit() throws IOException {
+      closeSections();
+      try {
+        if (source.length() != sourceLength || source.lastModified() != sourceModified) {
+          return;
+        }
+        File file = cacheFileFor(source);
+        File temp = File.createTempFile(source.getName(), ".part", file.getAbsoluteFile().getParentFile());
+        try {
+          DataOutputStream out = open(temp);
+          try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceLength);
+            out.writeLong(sourceModified);
+            out.writeInt(outWkid);
+            out.writeInt(featureCount);
+            out.writeInt(partCount);
+            out.writeLong(pointCount);
+            out.writeLong(attributeCount);
+            out.writeInt(strings.size());
+            for (File section : sectionFiles) {
+              Files.copy(section.toPath(), out);
+            }
+            for (String s : strings) {
+              byte[] bytes = s.getBytes(UTF8);
+              out.writeInt(bytes.length);
+              out.write(bytes);
+            }
+          } finally {
+            out.close();
+          }
+          Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+          temp.delete();
+        }
+      } finally {
+        deleteSections();
+      }
+    }
+
+    /**
+     * Discards what has been written so far.
+     */
+    void abort() {
+      try {
+        closeSections();
+      } catch (IOException ex) {
+        // the sections are deleted anyway
+      }
+      deleteSections();
+    }
+
+    private void closeSections() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      features.close();
+      parts.close();
+      points.close();
+      attributes.close();
+    }
+
+    private void deleteSections() {
+      for (File section : sectionFiles) {
+        if (section != null) {
+          section.delete();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,274 @@
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.MultiVertexGeometry;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.map.Feature;
+import com.esri.core.map.Graphic;
+import com.esri.map.GraphicsLayer;
+import com.esri.map.JMap;
+import com.esri.map.MapEvent;
+import com.esri.map.MapEventListener;
+import com.esri.map.MapEventListenerAdapter;
+
+/**
+ * Shows features in a {@link GraphicsLayer} at a level of detail that matches the
+ * resolution of the map.
+ *
+ * <p>
+ * Besides the full-detail geometries, the pyramid keeps one generalized copy of each
+ * line and polygon per level, for a given map resolution (map units per pixel): the
+ * geometries of a level are simplified to half a pixel at that resolution, so they look
+ * the same as the full-detail ones at that resolution or any coarser one. Whenever the
+ * extent of the map changes, the layer is switched to the coarsest level whose resolution
+ * is not coarser than the map's, so zoomed-out views draw light geometries and
+ * zoomed-in views draw full detail.
+ *
+ * <p>
+ * Levels are built lazily, the first time they are shown, on a background thread that
+ * also updates the layer, so neither runs on the event dispatch thread. Until a level
+ * is built the layer keeps showing the previous one. Points and multipoints are shared
+ * by every level. Generalized geometries only have x and y.
+ */
+public final class FeaturePyramid {
+
+  // largest deviation of a generalized geometry, in pixels at the resolution of its level
+  private static final double TOLERANCE_PIXELS = 0.5;
+
+  // estimated heap use of an x, y pair, of a path and of a geometry object
+  private static final int BYTES_PER_POINT = 16;
+  private static final int BYTES_PER_PATH = 32;
+  private static final int BYTES_PER_GEOMETRY = 96;
+
+  private final GraphicsLayer layer;
+  private final double[] resolutions;
+
+  // geometries per level, level 0 being full detail; null until a level is built
+  private final Geometry[][] levels;
+  private final long[] pointCounts;
+  private final long[] memoryEstimates;
+
+  private final int[] graphicIds;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "FeaturePyramid");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  // level requested by the latest extent change, and level shown by the layer
+  private volatile int requestedLevel = 0;
+  private int shownLevel = 0;
+
+  private JMap map = null;
+  private final MapEventListener onExtentChanged = new MapEventListenerAdapter() {
+    @Override
+    public void mapExtentChanged(MapEvent event) {
+      show(levelFor(event.getMap().getResolution()));
+    }
+  };
+
+  /**
+   * Adds features to a layer at full detail. Generalized levels are only built once
+   * the pyramid is attached to a map.
+   *
+   * @param layer layer to which the features are added.
+   * @param features features whose geometries are in the spatial reference of the map.
+   * @param resolutions resolutions of the generalized levels, in map units per pixel.
+   */
+  public FeaturePyramid(GraphicsLayer layer, List<Feature> features, double... resolutions) {
+    if (resolutions.length == 0) {
+      throw new IllegalArgumentException("at least one resolution is required");
+    }
+    this.layer = layer;
+    this.resolutions = resolutions.clone();
+    Arrays.sort(this.resolutions);
+    levels = new Geometry[resolutions.length + 1][];
+    pointCounts = new long[levels.length];
+    memoryEstimates = new long[levels.length];
+
+    Graphic[] graphics = new Graphic[features.size()];
+    Geometry[] geometries = new Geometry[graphics.length];
+    int i = 0;
+    for (Feature f : features) {
+      geometries[i] = f.getGeometry();
+      graphics[i] = f instanceof Graphic ? (Graphic) f : new Graphic(f.getGeometry(), f.getSymbol(), f.getAttributes());
+      i++;
+    }
+    setLevel(0, geometries);
+    graphicIds = layer.addGraphics(graphics);
+  }
+
+  /**
+   * Starts switching levels as the extent of the map changes, beginning with the
+   * level of the current extent.
+   *
+   * @param map the map showing the layer.
+   */
+  public void attach(JMap map) {
+    detach();
+    this.map = map;
+    map.addMapEventListener(onExtentChanged);
+    show(levelFor(map.getResolution()));
+  }
+
+  /**
+   * Stops switching levels; the layer keeps the level it shows.
+   */
+  public void detach() {
+    if (map != null) {
+      map.removeMapEventListener(onExtentChanged);
+      map = null;
+    }
+  }
+
+  /**
+   * Detaches the pyramid and stops its background thread.
+   */
+  public void dispose() {
+    detach();
+    executor.shutdownNow();
+  }
+
+  /**
+   * @return the number of levels, including the full-detail level 0.
+   */
+  public int getLevelCount() {
+    return levels.length;
+  }
+
+  /**
+   * @param level a level, from 1 to {@link #getLevelCount()} - 1.
+   * @return the resolution at and above which the level is shown, in map units per pixel.
+   */
+  public double getResolution(int level) {
+    return resolutions[level - 1];
+  }
+
+  /**
+   * @return true if the geometries of a level have been built.
+   */
+  public synchronized boolean isBuilt(int level) {
+    return levels[level] != null;
+  }
+
+  /**
+   * @return the number of vertices of the geometries of a level, or -1 if the level
+   * has not been built yet.
+   */
+  public synchronized long getPointCount(int level) {
+    return levels[level] == null ? -1 : pointCounts[level];
+  }
+
+  /**
+   * Returns an estimate of the heap used by the geometries of a level. Geometries that
+   * are shared with level 0, such as points, only count in level 0.
+   *
+   * @return the estimated number of bytes, or -1 if the level has not been built yet.
+   */
+  public synchronized long getMemoryEstimate(int level) {
+    return levels[level] == null ? -1 : memoryEstimates[level];
+  }
+
+  // ------------------------------------------------------------------------
+  // Private methods
+  // ------------------------------------------------------------------------
+
+  private int levelFor(double resolution) {
+    int level = 0;
+    while (level < resolutions.length && resolutions[level] <= resolution) {
+      level++;
+    }
+    return level;
+  }
+
+  /**
+   * Requests a level; the background thread builds it if needed and updates the
+   * layer, unless another level has been requested in the meantime.
+   */
+  private void show(int level) {
+    requestedLevel = level;
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        int target = requestedLevel;
+        if (target == shownLevel) {
+          return;
+        }
+        Geometry[] geometries = getOrBuildLevel(target);
+        if (geometries != null && target == requestedLevel) {
+          Geometry[] shown = levels[shownLevel];
+          for (int i = 0; i < geometries.length; i++) {
+            if (graphicIds[i] >= 0 && geometries[i] != shown[i]) {
+              layer.updateGraphic(graphicIds[i], geometries[i]);
+            }
+          }
+          shownLevel = target;
+        }
+      }
+    });
+  }
+
+  /**
+   * Builds a level from the full-detail geometries, in the background thread.
+   * @return the geometries of the level, or null if the build was interrupted.
+   */
+  private Geometry[] getOrBuildLevel(int level) {
+    synchronized (this) {
+      if (levels[level] != null) {
+        return levels[level];
+      }
+    }
+    Geometry[] source = levels[0];
+    Geometry[] geometries = new Geometry[source.length];
+    CoordinateBuffer coordinates = new CoordinateBuffer();
+    double tolerance = resolutions[level - 1] * TOLERANCE_PIXELS;
+    for (int i = 0; i < source.length; i++) {
+      if (Thread.currentThread().isInterrupted()) {
+        return null;
+      }
+      Geometry g = source[i];
+      if (g instanceof MultiPath && !g.isEmpty()) {
+        boolean polygon = g instanceof Polygon;
+        coordinates.read((MultiPath) g);
+        coordinates.simplify(tolerance, polygon);
+        geometries[i] = polygon ? coordinates.toPolygon() : coordinates.toPolyline();
+      } else {
+        geometries[i] = g;
+      }
+    }
+    setLevel(level, geometries);
+    return geometries;
+  }
+
+  private synchronized void setLevel(int level, Geometry[] geometries) {
+    long points = 0;
+    long memory = 0;
+    for (int i = 0; i < geometries.length; i++) {
+      Geometry g = geometries[i];
+      if (g == null) {
+        continue;
+      }
+      int pointCount = g instanceof MultiVertexGeometry ? ((MultiVertexGeometry) g).getPointCount() : 1;
+      points += pointCount;
+      if (level > 0 && g == levels[0][i]) {
+        continue;
+      }
+      memory += BYTES_PER_GEOMETRY + (long) pointCount * BYTES_PER_POINT;
+      if (g instanceof MultiPath) {
+        memory += (long) ((MultiPath) g).getPathCount() * BYTES_PER_PATH;
+      }
+    }
+    levels[level] = geometries;
+    pointCounts[level] = points;
+    memoryEstimates[level] = memory;
+  }
+}
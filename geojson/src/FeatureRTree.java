@@ -0,0 +1,352 @@
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.MultiVertexGeometry;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.map.Feature;
+
+/**
+ * An immutable R-tree over features, bulk-loaded with the Sort-Tile-Recursive algorithm,
+ * for hit testing and identify.
+ *
+ * <p>
+ * The extents of the features are collected by a {@link Builder} as the features arrive,
+ * for example as a {@link GeoJsonLoader} adds them to a layer, and the tree is packed once
+ * they have all arrived: the extents are sorted into vertical slices by x, each slice is
+ * sorted by y, and runs of {@value #NODE_CAPACITY} extents become the leaves. The upper
+ * levels group runs of consecutive nodes the same way. Nodes are stored in flat arrays of
+ * bounds, so a query touches a handful of cache lines per level.
+ *
+ * <p>
+ * {@link #identify(double, double, double)} first queries the tree with the extent of the
+ * location, then checks the few candidates exactly: point in polygon for polygons, and
+ * distance for lines and points. Each feature carries an int, such as the graphic ID
+ * that it was given by its layer. The tree can be queried from several threads at once.
+ */
+public final class FeatureRTree {
+
+  private static final int NODE_CAPACITY = 16;
+
+  // features and their values, in the order of the leaves
+  private final Feature[] features;
+  private final int[] values;
+
+  // bounds of the entries of each level: level 0 holds the features, the last level the root
+  private final double[][] minX;
+  private final double[][] minY;
+  private final double[][] maxX;
+  private final double[][] maxY;
+
+  private FeatureRTree(Feature[] features, int[] values, double[][] bounds) {
+    this.features = features;
+    this.values = values;
+    int levelCount = 1;
+    for (int count = features.length; count > NODE_CAPACITY; count = (count + NODE_CAPACITY - 1) / NODE_CAPACITY) {
+      levelCount++;
+    }
+    minX = new double[levelCount][];
+    minY = new double[levelCount][];
+    maxX = new double[levelCount][];
+    maxY = new double[levelCount][];
+    minX[0] = bounds[0];
+    minY[0] = bounds[1];
+    maxX[0] = bounds[2];
+    maxY[0] = bounds[3];
+    for (int level = 1; level < levelCount; level++) {
+      int childCount = minX[level - 1].length;
+      int count = (childCount + NODE_CAPACITY - 1) / NODE_CAPACITY;
+      minX[level] = new double[count];
+      minY[level] = new double[count];
+      maxX[level] = new double[count];
+      maxY[level] = new double[count];
+      for (int node = 0; node < count; node++) {
+        double x0 = Double.POSITIVE_INFINITY;
+        double y0 = Double.POSITIVE_INFINITY;
+        double x1 = Double.NEGATIVE_INFINITY;
+        double y1 = Double.NEGATIVE_INFINITY;
+        int end = Math.min(childCount, (node + 1) * NODE_CAPACITY);
+        for (int child = node * NODE_CAPACITY; child < end; child++) {
+          x0 = Math.min(x0, minX[level - 1][child]);
+          y0 = Math.min(y0, minY[level - 1][child]);
+          x1 = Math.max(x1, maxX[level - 1][child]);
+          y1 = Math.max(y1, maxY[level - 1][child]);
+        }
+        minX[level][node] = x0;
+        minY[level][node] = y0;
+        maxX[level][node] = x1;
+        maxY[level][node] = y1;
+      }
+    }
+  }
+
+  /**
+   * @return the number of features in the tree.
+   */
+  public int size() {
+    return features.length;
+  }
+
+  /**
+   * Returns the values of the features whose extent intersects an envelope.
+   *
+   * @param extent envelope in the spatial reference of the features.
+   * @return the values of the candidate features, in no particular order.
+   */
+  public int[] query(Envelope extent) {
+    List<Integer> entries = search(extent.getXMin(), extent.getYMin(), extent.getXMax(), extent.getYMax());
+    int[] result = new int[entries.size()];
+    for (int i = 0; i < result.length; i++) {
+      result[i] = values[entries.get(i).intValue()];
+    }
+    return result;
+  }
+
+  /**
+   * Returns the values of the features at a location: polygons that contain it, and
+   * lines and points within the tolerance of it.
+   *
+   * @param x x of the location, in the spatial reference of the features.
+   * @param y y of the location.
+   * @param tolerance search distance, for example a few pixels in map units.
+   * @return the values of the features at the location, in no particular order.
+   */
+  public int[] identify(double x, double y, double tolerance) {
+    List<Integer> entries = search(x - tolerance, y - tolerance, x + tolerance, y + tolerance);
+    int[] result = new int[entries.size()];
+    int count = 0;
+    Point scratch = new Point();
+    for (Integer entry : entries) {
+      if (hits(features[entry.intValue()].getGeometry(), x, y, tolerance, scratch)) {
+        result[count++] = values[entry.intValue()];
+      }
+    }
+    return Arrays.copyOf(result, count);
+  }
+
+  // ------------------------------------------------------------------------
+  // Private methods
+  // ------------------------------------------------------------------------
+
+  /**
+   * @return the indexes of the features whose extent intersects the rectangle.
+   */
+  private List<Integer> search(double x0, double y0, double x1, double y1) {
+    List<Integer> result = new ArrayList<Integer>();
+    if (features.length == 0) {
+      return result;
+    }
+    int top = minX.length - 1;
+    // pairs of (level, index) still to visit
+    int[] stack = new int[2 * NODE_CAPACITY * minX.length];
+    int size = 0;
+    for (int i = 0; i < minX[top].length; i++) {
+      stack[size++] = top;
+      stack[size++] = i;
+    }
+    while (size > 0) {
+      int index = stack[--size];
+      int level = stack[--size];
+      if (minX[level][index] > x1 || maxX[level][index] < x0
+          || minY[level][index] > y1 || maxY[level][index] < y0) {
+        continue;
+      }
+      if (level == 0) {
+        result.add(Integer.valueOf(index));
+        continue;
+      }
+      int end = Math.min(minX[level - 1].length, (index + 1) * NODE_CAPACITY);
+      for (int child = index * NODE_CAPACITY; child < end; child++) {
+        if (size + 2 > stack.length) {
+          stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        stack[size++] = level - 1;
+        stack[size++] = child;
+      }
+    }
+    return result;
+  }
+
+  private static boolean hits(Geometry g, double x, double y, double tolerance, Point scratch) {
+    if (g instanceof Polygon) {
+      return contains((Polygon) g, x, y, scratch) || isNearPaths((MultiPath) g, x, y, tolerance, true, scratch);
+    } else if (g instanceof MultiPath) {
+      return isNearPaths((MultiPath) g, x, y, tolerance, false, scratch);
+    } else if (g instanceof MultiVertexGeometry) {
+      MultiVertexGeometry points = (MultiVertexGeometry) g;
+      for (int i = 0; i < points.getPointCount(); i++) {
+        points.getPoint(i, scratch);
+        if (distance2(x, y, scratch.getX(), scratch.getY()) <= tolerance * tolerance) {
+          return true;
+        }
+      }
+      return false;
+    } else if (g instanceof Point) {
+      Point p = (Point) g;
+      return distance2(x, y, p.getX(), p.getY()) <= tolerance * tolerance;
+    }
+    return false;
+  }
+
+  /**
+   * Even-odd test over all rings, so that holes are excluded.
+   */
+  private static boolean contains(Polygon polygon, double x, double y, Point scratch) {
+    boolean inside = false;
+    for (int path = 0; path < polygon.getPathCount(); path++) {
+      int start = polygon.getPathStart(path);
+      int end = polygon.getPathEnd(path);
+      if (end - start < 3) {
+        continue;
+      }
+      polygon.getPoint(end - 1, scratch);
+      double px = scratch.getX();
+      double py = scratch.getY();
+      for (int i = start; i < end; i++) {
+        polygon.getPoint(i, scratch);
+        double qx = scratch.getX();
+        double qy = scratch.getY();
+        if ((qy > y) != (py > y) && x < (px - qx) * (y - qy) / (py - qy) + qx) {
+          inside = !inside;
+        }
+        px = qx;
+        py = qy;
+      }
+    }
+    return inside;
+  }
+
+  private static boolean isNearPaths(MultiPath g, double x, double y, double tolerance, boolean closed, Point scratch) {
+    double tolerance2 = tolerance * tolerance;
+    for (int path = 0; path < g.getPathCount(); path++) {
+      int start = g.getPathStart(path);
+      int end = g.getPathEnd(path);
+      g.getPoint(closed ? end - 1 : start, scratch);
+      double px = scratch.getX();
+      double py = scratch.getY();
+      for (int i = closed ? start : start + 1; i < end; i++) {
+        g.getPoint(i, scratch);
+        double qx = scratch.getX();
+        double qy = scratch.getY();
+        if (segmentDistance2(x, y, px, py, qx, qy) <= tolerance2) {
+          return true;
+        }
+        px = qx;
+        py = qy;
+      }
+      if (end - start == 1 && distance2(x, y, px, py) <= tolerance2) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static double distance2(double x0, double y0, double x1, double y1) {
+    double dx = x1 - x0;
+    double dy = y1 - y0;
+    return dx * dx + dy * dy;
+  }
+
+  private static double segmentDistance2(double x, double y, double ax, double ay, double bx, double by) {
+    double dx = bx - ax;
+    double dy = by - ay;
+    double length2 = dx * dx + dy * dy;
+    double t = length2 == 0 ? 0 : Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / length2));
+    return distance2(x, y, ax + t * dx, ay + t * dy);
+  }
+
+  /**
+   * Collects features and their extents, then packs them into a tree. A builder is
+   * used by a single thread at a time.
+   */
+  public static final class Builder {
+
+    private final List<Feature> features = new ArrayList<Feature>();
+    private int[] values = new int[256];
+    private double[] bounds = new double[4 * 256];
+    private final Envelope scratch = new Envelope();
+
+    /**
+     * Adds a feature. Features without a geometry are ignored.
+     *
+     * @param feature the feature.
+     * @param value value returned by queries that find the feature, such as its graphic ID.
+     * @return this builder.
+     */
+    public Builder add(Feature feature, int value) {
+      Geometry g = feature.getGeometry();
+      if (g == null || g.isEmpty()) {
+        return this;
+      }
+      g.queryEnvelope(scratch);
+      int count = features.size();
+      if (count == values.length) {
+        values = Arrays.copyOf(values, count * 2);
+        bounds = Arrays.copyOf(bounds, 4 * count * 2);
+      }
+      features.add(feature);
+      values[count] = value;
+      bounds[4 * count] = scratch.getXMin();
+      bounds[4 * count + 1] = scratch.getYMin();
+      bounds[4 * count + 2] = scratch.getXMax();
+      bounds[4 * count + 3] = scratch.getYMax();
+      return this;
+    }
+
+    /**
+     * Packs the features added so far into a tree.
+     * @return the tree.
+     */
+    public FeatureRTree build() {
+      int count = features.size();
+      Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++) {
+        order[i] = Integer.valueOf(i);
+      }
+      // sort by center x, then cut into vertical slices of whole leaves and sort each by center y
+      Arrays.sort(order, new CenterComparator(0));
+      int leafCount = (count + NODE_CAPACITY - 1) / NODE_CAPACITY;
+      int sliceCount = (int) Math.ceil(Math.sqrt(leafCount));
+      int sliceSize = NODE_CAPACITY * (int) Math.ceil((double) leafCount / Math.max(1, sliceCount));
+      Comparator<Integer> byY = new CenterComparator(1);
+      for (int start = 0; start < count; start += sliceSize) {
+        Arrays.sort(order, start, Math.min(count, start + sliceSize), byY);
+      }
+      Feature[] sortedFeatures = new Feature[count];
+      int[] sortedValues = new int[count];
+      double[][] sortedBounds = new double[4][count];
+      for (int i = 0; i < count; i++) {
+        int source = order[i].intValue();
+        sortedFeatures[i] = features.get(source);
+        sortedValues[i] = values[source];
+        for (int k = 0; k < 4; k++) {
+          sortedBounds[k][i] = bounds[4 * source + k];
+        }
+      }
+      return new FeatureRTree(sortedFeatures, sortedValues, sortedBounds);
+    }
+
+    private final class CenterComparator implements Comparator<Integer> {
+
+      // 0 to compare x, 1 to compare y
+      private final int axis;
+
+      CenterComparator(int axis) {
+        this.axis = axis;
+      }
+
+      @Override
+      public int compare(Integer a, Integer b) {
+        int i = 4 * a.intValue() + axis;
+        int j = 4 * b.intValue() + axis;
+        return Double.compare(bounds[i] + bounds[i + 2], bounds[j] + bounds[j + 2]);
+      }
+    }
+  }
+}
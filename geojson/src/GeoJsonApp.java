@@ -11,18 +11,17 @@ notice and use restrictions.
 See the use restrictions.*/
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.File;
-import java.util.List;
+import java.nio.file.Paths;
 
 import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JLayeredPane;
 import javax.swing.SwingUtilities;
 
-import com.esri.core.map.Feature;
-import com.esri.core.map.Graphic;
+import com.esri.core.geometry.Point;
 import com.esri.core.symbol.CompositeSymbol;
 import com.esri.core.symbol.SimpleFillSymbol;
 import com.esri.core.symbol.SimpleLineSymbol;
@@ -32,9 +31,7 @@ import com.esri.map.MapEvent;
 import com.esri.map.MapEventListenerAdapter;
 import com.esri.map.MapOptions;
 import com.esri.map.MapOptions.MapType;
-import com.esri.toolkit.overlays.HitTestEvent;
-import com.esri.toolkit.overlays.HitTestListener;
-import com.esri.toolkit.overlays.HitTestOverlay;
+import com.esri.map.MapOverlay;
 import com.esri.toolkit.overlays.InfoPopupOverlay;
 
 /**
@@ -51,8 +48,15 @@ import com.esri.toolkit.overlays.InfoPopupOverlay;
 public final class GeoJsonApp {
 
   private static final String GEOJSON_DATA_FILE = "countries.geojson";
+  private static final String WINDOW_TITLE = "Add GeoJSON Features Application";
+  private static final int CLICK_TOLERANCE_PIXELS = 3;
   
   private JMap map;
+  private JFrame window;
+  private GeoJsonLoader loader;
+  
+  // spatial index of the features, built once they have all been loaded
+  private volatile FeatureRTree featureIndex;
 
   public GeoJsonApp() { }
   
@@ -60,31 +64,57 @@ public final class GeoJsonApp {
   // Core functionality
   // ------------------------------------------------------------------------
   /**
-   * Parse GeoJSON file and add the features to a graphics layer.
+   * Parse GeoJSON file and add the features to a graphics layer. The file is parsed
+   * in the background, and the features are added in batches while it is being read.
    * @param graphicsLayer layer to which the features should be added.
    */
   private void addGeoJsonFeatures(GraphicsLayer graphicsLayer) {
-    try {
-      // create an instance of the parser
-      GeoJsonParser geoJsonParser = new GeoJsonParser();
+    // create an instance of the parser
+    GeoJsonParser geoJsonParser = new GeoJsonParser();
+    
+    // provide the symbology for the features
+    CompositeSymbol symbol = new CompositeSymbol();
+    symbol.add(new SimpleFillSymbol(new Color(0, 255, 0, 70)));
+    symbol.add(new SimpleLineSymbol(Color.BLACK, 2));
+    geoJsonParser.setSymbol(symbol).setOutSpatialReference(map.getSpatialReference());
+    
+    // keep a binary copy of the parsed features, so that later starts skip the parsing
+    geoJsonParser.setCached(true);
+    
+    // parse geojson data on a background thread, showing the progress in the title bar
+    loader = new GeoJsonLoader(geoJsonParser, graphicsLayer);
+    final FeatureRTree.Builder indexBuilder = new FeatureRTree.Builder();
+    loader.setIndexBuilder(indexBuilder);
+    loader.setLoadListener(new GeoJsonLoader.LoadListener() {
+      @Override
+      public void progress(int featureCount, long bytesRead, long totalBytes) {
+        if (totalBytes < 0) {
+          // read through the cache, only the number of features is known
+          window.setTitle(String.format("%s - loaded %d features", WINDOW_TITLE, featureCount));
+        } else {
+          window.setTitle(String.format("%s - loading %d%%", WINDOW_TITLE, 
+              totalBytes == 0 ? 100 : bytesRead * 100 / totalBytes));
+        }
+      }
       
-      // provide the symbology for the features
-      CompositeSymbol symbol = new CompositeSymbol();
-      symbol.add(new SimpleFillSymbol(new Color(0, 255, 0, 70)));
-      symbol.add(new SimpleLineSymbol(Color.BLACK, 2));
-      geoJsonParser.setSymbol(symbol).setOutSpatialReference(map.getSpatialReference());
+      @Override
+      public void completed(int featureCount) {
+        window.setTitle(WINDOW_TITLE);
+        featureIndex = indexBuilder.build();
+      }
       
-      // parse geojson data
-      File geoJsonFile = new File(GEOJSON_DATA_FILE);
-      List<Feature> features = geoJsonParser.parseFeatures(geoJsonFile);
+      @Override
+      public void cancelled(int featureCount) {
+        window.setTitle(WINDOW_TITLE);
+      }
       
-      // add parsed features to a layer
-      for (Feature f : features) {
-       graphicsLayer.addGraphic(new Graphic(f.getGeometry(), f.getSymbol(), f.getAttributes()));
+      @Override
+      public void failed(Exception ex) {
+        window.setTitle(WINDOW_TITLE);
+        ex.printStackTrace();
       }
-    } catch (Exception ex) {
-      throw new RuntimeException(ex);
-    }
+    });
+    loader.load(Paths.get(GEOJSON_DATA_FILE));
   }
   
   // ------------------------------------------------------------------------
@@ -148,7 +178,7 @@ public final class GeoJsonApp {
    * @return a window.
    */
   private JFrame createWindow() {
-    JFrame window = new JFrame("Add GeoJSON Features Application");
+    window = new JFrame(WINDOW_TITLE);
     window.setBounds(100, 100, 1000, 700);
     window.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
     window.getContentPane().setLayout(new BorderLayout(0, 0));
@@ -156,6 +186,9 @@ public final class GeoJsonApp {
       @Override
       public void windowClosing(WindowEvent windowEvent) {
         super.windowClosing(windowEvent);
+        if (loader != null) {
+          loader.dispose();
+        }
         map.dispose();
       }
     });
@@ -176,8 +209,12 @@ public final class GeoJsonApp {
     jMap.getLayers().add(graphicsLayer);
     
     // add a overlay to highlight features at the clicked location
-    final HitTestOverlay hitTestOverlay = new HitTestOverlay(graphicsLayer, onFeatureClick);
-    jMap.addMapOverlay(hitTestOverlay);
+    jMap.addMapOverlay(new MapOverlay() {
+      @Override
+      public void onMouseClicked(MouseEvent event) {
+        toggleFeaturesAt(graphicsLayer, event);
+      }
+    });
     
     // add a overlay to show popup with features' info at the clicked location 
     InfoPopupOverlay infoPopupOverlay = new InfoPopupOverlay();
@@ -201,21 +238,25 @@ public final class GeoJsonApp {
     return jMap;
   }
   
-  private final HitTestListener onFeatureClick = new HitTestListener() {
-    @Override
-    public void featureHit(HitTestEvent event) {
-      List<Feature> hitFeatures = event.getOverlay().getHitFeatures();
-      GraphicsLayer graphicsLayer = (GraphicsLayer) event.getOverlay().getLayer();
-      for (Feature feature : hitFeatures) {
-        int id = (int) feature.getId();
-        if (graphicsLayer.isGraphicSelected(id)) {
-          // if graphic is selected in the layer, unselect it
-          graphicsLayer.unselect(id);
-        } else {
-          // otherwise select graphic in the layer
-          graphicsLayer.select(id);
-        }
+  /**
+   * Selects or unselects the features at a clicked location. The features are found
+   * through the spatial index rather than by testing every graphic of the layer.
+   */
+  private void toggleFeaturesAt(GraphicsLayer graphicsLayer, MouseEvent event) {
+    FeatureRTree index = featureIndex;
+    if (index == null) {
+      return;
+    }
+    Point location = map.toMapPoint(event.getX(), event.getY());
+    double tolerance = CLICK_TOLERANCE_PIXELS * map.getResolution();
+    for (int id : index.identify(location.getX(), location.getY(), tolerance)) {
+      if (graphicsLayer.isGraphicSelected(id)) {
+        // if graphic is selected in the layer, unselect it
+        graphicsLayer.unselect(id);
+      } else {
+        // otherwise select graphic in the layer
+        graphicsLayer.select(id);
       }
     }
-  };
+  }
 }
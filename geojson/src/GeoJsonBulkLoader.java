@@ -0,0 +1,388 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.esri.core.map.Feature;
+import com.esri.core.map.Graphic;
+import com.esri.map.GraphicsLayer;
+
+/**
+ * Parses many GeoJSON files at once, such as a directory of regional files loaded at startup.
+ *
+ * <p>
+ * Each file is parsed by {@link GeoJsonParser#parseFeatures(File)} as a separate task on a
+ * bounded executor, so at most as many files as the executor has threads are parsed, and
+ * held in parser buffers, at a time. The features of all the files are then merged into one
+ * list, in the order of the files, and each feature can be traced back to its file. The
+ * parser is shared by every task: use a parser made by {@link GeoJsonParser.Builder}, or
+ * do not reconfigure it during a load.
+ *
+ * <p>
+ * A file that cannot be read or parsed does not fail the load; its error is reported in
+ * its {@link FileResult} and the other files are loaded. The time spent parsing each file
+ * is reported, along with the throughput of the whole load.
+ */
+public final class GeoJsonBulkLoader {
+
+  /**
+   * Files matched in a directory when no pattern is given: GeoJSON files, compressed or not.
+   */
+  public static final String DEFAULT_GLOB = "*.{geojson,json,geojson.gz,json.gz}";
+
+  private final GeoJsonParser parser;
+  private final ExecutorService executor;
+
+  /**
+   * Creates a loader with its own pool of threads, which is shut down by {@link #dispose()}.
+   *
+   * @param parser parser configured with the symbol and spatial reference of the features.
+   * @param threads number of files parsed at a time, at least 1.
+   */
+  public GeoJsonBulkLoader(GeoJsonParser parser, int threads) {
+    this(parser, Executors.newFixedThreadPool(checkThreads(threads), new ThreadFactory() {
+      private int count = 0;
+
+      @Override
+      public synchronized Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "GeoJsonBulkLoader-" + (++count));
+        thread.setDaemon(true);
+        return thread;
+      }
+    }));
+  }
+
+  /**
+   * Creates a loader that parses files on the given executor. The number of threads of
+   * the executor bounds the number of files parsed at a time.
+   *
+   * @param parser parser configured with the symbol and spatial reference of the features.
+   * @param executor executor on which files are parsed.
+   */
+  public GeoJsonBulkLoader(GeoJsonParser parser, ExecutorService executor) {
+    this.parser = parser;
+    this.executor = executor;
+  }
+
+  /**
+   * Loads the files of a directory whose names match {@link #DEFAULT_GLOB}.
+   *
+   * @see #load(Path, String)
+   */
+  public Result load(Path directory) throws InterruptedException {
+    return load(directory, DEFAULT_GLOB);
+  }
+
+  /**
+   * Loads the files of a directory whose names match a glob pattern, in the order of
+   * their names. Subdirectories are not searched.
+   *
+   * @param directory directory containing the files.
+   * @param glob pattern of the file names, for example "*.geojson".
+   * @return the features and statistics of the load.
+   * @throws InterruptedException if the calling thread is interrupted while waiting for
+   * the files; the files not yet parsed are then cancelled.
+   */
+  public Result load(Path directory, String glob) throws InterruptedException {
+    List<Path> files = new ArrayList<Path>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+      for (Path path : stream) {
+        if (Files.isRegularFile(path)) {
+          files.add(path);
+        }
+      }
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    Collections.sort(files);
+    return load(files);
+  }
+
+  /**
+   * Parses files concurrently, and waits for all of them to be parsed.
+   *
+   * @param files GeoJSON files, each containing a FeatureCollection or a GeometryCollection.
+   * @return the features and statistics of the load, with the files in the given order.
+   * @throws InterruptedException if the calling thread is interrupted while waiting for
+   * the files; the files not yet parsed are then cancelled.
+   */
+  public Result load(List<Path> files) throws InterruptedException {
+    long start = System.nanoTime();
+    List<Future<FileResult>> futures = new ArrayList<Future<FileResult>>(files.size());
+    for (final Path path : files) {
+      futures.add(executor.submit(new Callable<FileResult>() {
+        @Override
+        public FileResult call() {
+          return parseFile(path);
+        }
+      }));
+    }
+    List<FileResult> results = new ArrayList<FileResult>(files.size());
+    try {
+      for (Future<FileResult> future : futures) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException ex) {
+      for (Future<FileResult> future : futures) {
+        future.cancel(true);
+      }
+      throw ex;
+    } catch (ExecutionException ex) {
+      // parseFile reports failures in its result, so only errors get here
+      throw new RuntimeException(ex.getCause());
+    }
+    return new Result(results, System.nanoTime() - start);
+  }
+
+  /**
+   * Shuts down the executor of this loader, cancelling the files being parsed.
+   */
+  public void dispose() {
+    executor.shutdownNow();
+  }
+
+  // ------------------------------------------------------------------------
+  // Private methods
+  // ------------------------------------------------------------------------
+
+  private static int checkThreads(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be at least 1: " + threads);
+    }
+    return threads;
+  }
+
+  private FileResult parseFile(Path path) {
+    long start = System.nanoTime();
+    long size = 0;
+    try {
+      size = Files.size(path);
+      List<Feature> features = parser.parseFeatures(path.toFile());
+      return new FileResult(path, features, size, System.nanoTime() - start, null);
+    } catch (Exception ex) {
+      // the parser wraps the errors of the file in plain RuntimeExceptions
+      Throwable error = ex;
+      while (error.getClass() == RuntimeException.class && error.getCause() != null) {
+        error = error.getCause();
+      }
+      List<Feature> none = Collections.emptyList();
+      return new FileResult(path, none, size, System.nanoTime() - start, error);
+    }
+  }
+
+  /**
+   * The outcome of parsing one file.
+   */
+  public static final class FileResult {
+
+    private final Path path;
+    private final List<Feature> features;
+    private final long size;
+    private final long elapsedNanos;
+    private final Throwable error;
+
+    FileResult(Path path, List<Feature> features, long size, long elapsedNanos, Throwable error) {
+      this.path = path;
+      this.features = Collections.unmodifiableList(features);
+      this.size = size;
+      this.elapsedNanos = elapsedNanos;
+      this.error = error;
+    }
+
+    public Path getPath() {
+      return path;
+    }
+
+    /**
+     * @return the features of the file, none if it failed.
+     */
+    public List<Feature> getFeatures() {
+      return features;
+    }
+
+    /**
+     * @return the size of the file in bytes, as stored on disk.
+     */
+    public long getSize() {
+      return size;
+    }
+
+    /**
+     * @return the time spent reading and parsing the file, not waiting for a thread.
+     */
+    public long getElapsedTime(TimeUnit unit) {
+      return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the reason the file could not be loaded, or null if it was loaded.
+     */
+    public Throwable getError() {
+      return error;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %d features, %d bytes, %d ms%s", path.getFileName(),
+          Integer.valueOf(features.size()), Long.valueOf(size),
+          Long.valueOf(getElapsedTime(TimeUnit.MILLISECONDS)), error == null ? "" : ", failed: " + error);
+    }
+  }
+
+  /**
+   * The merged features of a load, with the file each of them comes from.
+   */
+  public static final class Result {
+
+    private final List<FileResult> files;
+    private final List<Feature> features;
+
+    // index in the merged list of the first feature of each file, then the feature count
+    private final int[] offsets;
+
+    private final long elapsedNanos;
+
+    Result(List<FileResult> files, long elapsedNanos) {
+      this.files = Collections.unmodifiableList(files);
+      this.elapsedNanos = elapsedNanos;
+      offsets = new int[files.size() + 1];
+      int count = 0;
+      for (int i = 0; i < files.size(); i++) {
+        offsets[i] = count;
+        count += files.get(i).features.size();
+      }
+      offsets[files.size()] = count;
+      List<Feature> merged = new ArrayList<Feature>(count);
+      for (FileResult file : files) {
+        merged.addAll(file.features);
+      }
+      features = Collections.unmodifiableList(merged);
+    }
+
+    /**
+     * @return the result of each file, in the order the files were given.
+     */
+    public List<FileResult> getFiles() {
+      return files;
+    }
+
+    /**
+     * @return the features of all the files, file after file.
+     */
+    public List<Feature> getFeatures() {
+      return features;
+    }
+
+    /**
+     * @param featureIndex index of a feature in {@link #getFeatures()}.
+     * @return the file the feature comes from.
+     */
+    public FileResult getFile(int featureIndex) {
+      if (featureIndex < 0 || featureIndex >= features.size()) {
+        throw new IndexOutOfBoundsException("no such feature: " + featureIndex);
+      }
+      int i = Arrays.binarySearch(offsets, featureIndex);
+      if (i < 0) {
+        i = -i - 2;
+      } else {
+        // skip the files without features that share the offset
+        while (offsets[i + 1] == featureIndex) {
+          i++;
+        }
+      }
+      return files.get(i);
+    }
+
+    /**
+     * @return the number of files that could not be loaded.
+     */
+    public int getFailureCount() {
+      int count = 0;
+      for (FileResult file : files) {
+        if (file.error != null) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    /**
+     * @return the wall-clock time of the whole load.
+     */
+    public long getElapsedTime(TimeUnit unit) {
+      return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the number of features loaded per second of wall-clock time.
+     */
+    public double getFeaturesPerSecond() {
+      return features.size() / Math.max(elapsedNanos * 1e-9, 1e-9);
+    }
+
+    /**
+     * @return the number of bytes of files read per second of wall-clock time.
+     */
+    public double getBytesPerSecond() {
+      long bytes = 0;
+      for (FileResult file : files) {
+        bytes += file.size;
+      }
+      return bytes / Math.max(elapsedNanos * 1e-9, 1e-9);
+    }
+
+    /**
+     * Adds the features to a layer, one call to {@link GraphicsLayer#addGraphics(Graphic[])}
+     * per file.
+     *
+     * @param layer layer to which the features are added.
+     * @return the graphic ID of each feature, in the order of {@link #getFeatures()}, so
+     * that {@link #getFile(int)} gives the file of a graphic.
+     */
+    public int[] addTo(GraphicsLayer layer) {
+      int[] ids = new int[features.size()];
+      for (int i = 0; i < files.size(); i++) {
+        List<Feature> fileFeatures = files.get(i).features;
+        if (fileFeatures.isEmpty()) {
+          continue;
+        }
+        Graphic[] graphics = new Graphic[fileFeatures.size()];
+        int j = 0;
+        for (Feature f : fileFeatures) {
+          graphics[j++] = f instanceof Graphic ? (Graphic) f : new Graphic(f.getGeometry(), f.getSymbol(), f.getAttributes());
+        }
+        System.arraycopy(layer.addGraphics(graphics), 0, ids, offsets[i], graphics.length);
+      }
+      return ids;
+    }
+
+    /**
+     * @return one line per file with its feature count, size and parse time, then
+     * the totals and throughput of the load.
+     */
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (FileResult file : files) {
+        sb.append(file).append('\n');
+      }
+      sb.append(String.format("%d files, %d failed, %d features in %d ms: %.0f features/s, %.1f MB/s",
+          Integer.valueOf(files.size()), Integer.valueOf(getFailureCount()), Integer.valueOf(features.size()),
+          Long.valueOf(getElapsedTime(TimeUnit.MILLISECONDS)), Double.valueOf(getFeaturesPerSecond()),
+          Double.valueOf(getBytesPerSecond() / (1 << 20))));
+      return sb.toString();
+    }
+  }
+}
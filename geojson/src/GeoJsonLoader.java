@@ -0,0 +1,349 @@
+
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.swing.SwingUtilities;
+
+import com.esri.core.map.Feature;
+import com.esri.core.map.Graphic;
+import com.esri.map.GraphicsLayer;
+
+/**
+ * Loads the features of a GeoJSON file into a {@link GraphicsLayer} in the background.
+ *
+ * <p>
+ * The file is parsed on an executor thread, and the parsed features are added to the
+ * layer in batches with {@link GraphicsLayer#addGraphics(Graphic[])}, so the layer
+ * fills up while the rest of the file is still being read. A batch is added once it
+ * is full or once some time has passed since the previous one, whichever comes first.
+ * Nothing runs on the event dispatch thread except the calls to the {@link LoadListener},
+ * so the UI stays responsive however big the file is.
+ *
+ * <p>
+ * When the parser caches features ({@link GeoJsonParser#setCached(boolean)}), the file
+ * is read through {@link GeoJsonParser#streamFeatures(Path)}, so that a file loaded
+ * before is read from its cache; progress is then reported as a feature count only.
+ *
+ * <p>
+ * A load is cancelled through the {@link Future} returned by {@link #load(Path)}.
+ * The features added before the cancellation stay in the layer.
+ */
+public final class GeoJsonLoader {
+
+  /**
+   * Receives the progress of a load, on the event dispatch thread.
+   */
+  public interface LoadListener {
+
+    /**
+     * Called after each batch of features has been added to the layer.
+     *
+     * @param featureCount number of features added so far.
+     * @param bytesRead number of bytes of the file read so far, or -1 if the parser
+     * caches features, in which case only the feature count tells the progress.
+     * @param totalBytes size of the file, or -1 if the parser caches features.
+     */
+    void progress(int featureCount, long bytesRead, long totalBytes);
+
+    /**
+     * Called once every feature of the file has been added to the layer.
+     * @param featureCount number of features added.
+     */
+    void completed(int featureCount);
+
+    /**
+     * Called when the load has been cancelled.
+     * @param featureCount number of features added before the cancellation.
+     */
+    void cancelled(int featureCount);
+
+    /**
+     * Called when the file could not be read or parsed.
+     * @param ex the cause of the failure.
+     */
+    void failed(Exception ex);
+  }
+
+  // default number of features added to the layer at once
+  private static final int DEFAULT_BATCH_SIZE = 500;
+
+  // longest time parsed features wait before they are added to the layer
+  private static final long MAX_BATCH_DELAY_MILLIS = 100;
+
+  private final GeoJsonParser parser;
+  private final GraphicsLayer layer;
+  private final ExecutorService executor;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private LoadListener listener = null;
+  private FeatureRTree.Builder indexBuilder = null;
+
+  /**
+   * Creates a loader with its own background thread, which is shut down by {@link #dispose()}.
+   *
+   * @param parser parser configured with the symbol and spatial reference of the features.
+   * @param layer layer to which the features are added.
+   */
+  public GeoJsonLoader(GeoJsonParser parser, GraphicsLayer layer) {
+    this(parser, layer, Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "GeoJsonLoader");
+        thread.setDaemon(true);
+        return thread;
+      }
+    }));
+  }
+
+  /**
+   * Creates a loader that parses files on the given executor.
+   *
+   * @param parser parser configured with the symbol and spatial reference of the features.
+   * @param layer layer to which the features are added.
+   * @param executor executor on which files are parsed.
+   */
+  public GeoJsonLoader(GeoJsonParser parser, GraphicsLayer layer, ExecutorService executor) {
+    this.parser = parser;
+    this.layer = layer;
+    this.executor = executor;
+  }
+
+  /**
+   * @param batchSize largest number of features added to the layer at once, at least 1.
+   * @return this loader.
+   */
+  public GeoJsonLoader setBatchSize(int batchSize) {
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("batch size must be at least 1: " + batchSize);
+    }
+    this.batchSize = batchSize;
+    return this;
+  }
+
+  /**
+   * @param listener listener notified of the progress of loads, or null.
+   * @return this loader.
+   */
+  public GeoJsonLoader setLoadListener(LoadListener listener) {
+    this.listener = listener;
+    return this;
+  }
+
+  /**
+   * Sets a builder that receives each feature added to the layer, with its graphic ID,
+   * so that a {@link FeatureRTree} can be built once the load has completed. The builder
+   * is only used by the loading thread until {@link LoadListener#completed(int)} is called.
+   * 
+   * @param indexBuilder builder of a spatial index, or null.
+   * @return this loader.
+   */
+  public GeoJsonLoader setIndexBuilder(FeatureRTree.Builder indexBuilder) {
+    this.indexBuilder = indexBuilder;
+    return this;
+  }
+
+  /**
+   * Starts loading the features of a file into the layer, and returns immediately.
+   *
+   * @param path a file containing a FeatureCollection or a GeometryCollection.
+   * @return the pending load, whose result is the number of features added;
+   * cancelling it with interruption stops the load after the current feature.
+   */
+  public Future<Integer> load(final Path path) {
+    return executor.submit(new Callable<Integer>() {
+      @Override
+      public Integer call() throws Exception {
+        return Integer.valueOf(loadFeatures(path));
+      }
+    });
+  }
+
+  /**
+   * Shuts down the executor of this loader, cancelling the loads in progress.
+   */
+  public void dispose() {
+    executor.shutdownNow();
+  }
+
+  // ------------------------------------------------------------------------
+  // Private methods
+  // ------------------------------------------------------------------------
+
+  private int loadFeatures(Path path) throws Exception {
+    int featureCount = 0;
+    CountingInputStream in = null;
+    Stream<Feature> stream = null;
+    try {
+      Iterator<Feature> features;
+      long totalBytes;
+      if (parser.usesCache()) {
+        // the parser reads the features from the cache, or parses the file and writes
+        // the cache, so how much of the file has been read is not known
+        stream = parser.streamFeatures(path);
+        features = stream.iterator();
+        totalBytes = -1;
+      } else {
+        in = new CountingInputStream(new FileInputStream(path.toFile()));
+        features = parser.iterateFeatures(in);
+        totalBytes = Files.size(path);
+      }
+      Graphic[] batch = new Graphic[batchSize];
+      int count = 0;
+      long batchStart = System.nanoTime();
+      while (features.hasNext()) {
+        if (Thread.currentThread().isInterrupted()) {
+          addBatch(batch, count);
+          featureCount += count;
+          notifyCancelled(featureCount);
+          throw new CancellationException();
+        }
+        Feature f = features.next();
+        batch[count++] = f instanceof Graphic ? (Graphic) f : new Graphic(f.getGeometry(), f.getSymbol(), f.getAttributes());
+        if (count == batchSize
+            || System.nanoTime() - batchStart > TimeUnit.MILLISECONDS.toNanos(MAX_BATCH_DELAY_MILLIS)) {
+          addBatch(batch, count);
+          featureCount += count;
+          notifyProgress(featureCount, in == null ? -1 : in.getCount(), totalBytes);
+          batch = new Graphic[batchSize];
+          count = 0;
+          batchStart = System.nanoTime();
+        }
+      }
+      addBatch(batch, count);
+      featureCount += count;
+      notifyProgress(featureCount, totalBytes, totalBytes);
+      notifyCompleted(featureCount);
+      return featureCount;
+    } catch (CancellationException ex) {
+      throw ex;
+    } catch (Exception ex) {
+      if (Thread.currentThread().isInterrupted()) {
+        notifyCancelled(featureCount);
+        throw new CancellationException();
+      }
+      notifyFailed(ex);
+      throw ex;
+    } finally {
+      if (stream != null) {
+        stream.close();
+      }
+      if (in != null) {
+        in.close();
+      }
+    }
+  }
+
+  private void addBatch(Graphic[] batch, int count) {
+    if (count == 0) {
+      return;
+    }
+    int[] ids = layer.addGraphics(count == batch.length ? batch : Arrays.copyOf(batch, count));
+    if (indexBuilder != null && ids != null) {
+      for (int i = 0; i < count; i++) {
+        indexBuilder.add(batch[i], ids[i]);
+      }
+    }
+  }
+
+  private void notifyProgress(final int featureCount, final long bytesRead, final long totalBytes) {
+    final LoadListener l = listener;
+    if (l != null) {
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          l.progress(featureCount, bytesRead, totalBytes);
+        }
+      });
+    }
+  }
+
+  private void notifyCompleted(final int featureCount) {
+    final LoadListener l = listener;
+    if (l != null) {
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          l.completed(featureCount);
+        }
+      });
+    }
+  }
+
+  private void notifyCancelled(final int featureCount) {
+    final LoadListener l = listener;
+    if (l != null) {
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          l.cancelled(featureCount);
+        }
+      });
+    }
+  }
+
+  private void notifyFailed(final Exception ex) {
+    final LoadListener l = listener;
+    if (l != null) {
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          l.failed(ex);
+        }
+      });
+    }
+  }
+
+  /**
+   * Counts the bytes read from a stream, to report how much of a file has been parsed.
+   */
+  private static final class CountingInputStream extends FilterInputStream {
+
+    private volatile long count = 0;
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+}
@@ -1,26 +1,47 @@
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import org.codehaus.jackson.JsonFactory;
-import org.codehaus.jackson.JsonNode;
-import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.JsonParser;
-import org.codehaus.jackson.map.ObjectMapper;
-import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.JsonParser.NumberType;
+import org.codehaus.jackson.JsonToken;
 
+import com.esri.core.geometry.Envelope;
 import com.esri.core.geometry.Geometry;
 import com.esri.core.geometry.GeometryEngine;
-import com.esri.core.geometry.MultiPoint;
-import com.esri.core.geometry.Point;
-import com.esri.core.geometry.Polygon;
-import com.esri.core.geometry.Polyline;
+import com.esri.core.geometry.MultiPath;
 import com.esri.core.geometry.SpatialReference;
 import com.esri.core.map.Feature;
 import com.esri.core.map.Graphic;
@@ -35,7 +56,16 @@ import com.esri.core.symbol.Symbol;
  * <a href="http://geojson.org/geojson-spec.html#feature-collection-objects">FeatureCollection</a> 
  *  use {@link #parseFeatures(String)}; to parse a 
  * <a href="http://geojson.org/geojson-spec.html#feature-collection-objects">GeometryCollection</a>
- *  use {@link #parseGeometries(String)}.
+ *  use {@link #parseGeometries(String)}. To process the features of a large input
+ *  one at a time, without holding all of them in a list, use {@link #streamFeatures(Path)}
+ *  or {@link #iterateFeatures(InputStream)}.
+ *
+ * <p>
+ * Input is read as a stream of tokens and each feature is built as soon as it has
+ * been read, so memory use depends on the size of the largest feature rather than
+ * on the size of the whole input. Files and streams compressed with gzip or deflate,
+ * such as ".geojson.gz" files, are recognized by their first bytes and decompressed 
+ * while they are parsed, without an intermediate file.
  *
  * <p>
  * Limitations:
@@ -47,19 +77,31 @@ import com.esri.core.symbol.Symbol;
  */
 public final class GeoJsonParser {
   
-  // symbology to be used for all the features
-  private Symbol symbol = null;
+  // geometries in GeoJSON are assumed to be in CRS84 (Esri Wkid = 4326)
+  private final static SpatialReference IN_SR = SpatialReference.create(4326);
   
-  // dependency on the Jackson parser library to parse JSON 
-  private final ObjectMapper mapper = new ObjectMapper();
+  // factories are thread-safe, and share their tables of canonical field names between
+  // the parsers they create, so one factory serves every parse of every instance
+  private final static JsonFactory JSON_FACTORY = new JsonFactory();
   
-  // geometries in GeoJSON are assumed to be in CRS84 (Esri Wkid = 4326)
-  private final SpatialReference inSR = SpatialReference.create(4326);
+  // number of features read from the token stream before they are handed to the pool
+  private final static int PARALLEL_BATCH_SIZE = 256;
   
-  // output CRS can be configured to be different
-  private SpatialReference outSR = null;
+  // number of features below which a batch is no longer split between threads
+  private final static int PARALLEL_SPLIT_THRESHOLD = 16;
+  
+  // smallest byte range of a mapped file that is parsed as one parallel task
+  private final static long PARALLEL_MIN_CHUNK_SIZE = 1 << 20;
+  
+  // configuration; reached through a final field so that it is safely published
+  // along with the parser when the parser is immutable
+  private final Settings settings;
+  
+  // whether the parser was made by a Builder, in which case its settings never change
+  private final boolean immutable;
   
   // field names defined in the GeoJson spec
+  private final static String FIELD_BBOX = "bbox";
   private final static String FIELD_COORDINATES = "coordinates";
   private final static String FIELD_FEATURE = "Feature";
   private final static String FIELD_FEATURES = "features";
@@ -67,6 +109,7 @@ public final class GeoJsonParser {
   private final static String FIELD_GEOMETRY = "geometry";
   private final static String FIELD_GEOMETRIES = "geometries";
   private final static String FIELD_GEOMETRY_COLLECTION = "GeometryCollection";
+  private final static String FIELD_ID = "id";
   private final static String FIELD_PROPERTIES = "properties";
   private final static String FIELD_TYPE = "type";
   
@@ -94,23 +137,203 @@ public final class GeoJsonParser {
     }
   }
   
+  /**
+   * Creates a parser with the default settings, which can be changed with its setters.
+   * Such a parser must not be reconfigured while it is parsing; use a {@link Builder} 
+   * for a parser that is shared between threads.
+   */
+  public GeoJsonParser() {
+    this(new Settings(), false);
+  }
+  
+  private GeoJsonParser(Settings settings, boolean immutable) {
+    this.settings = settings;
+    this.immutable = immutable;
+  }
+  
   // ------------------------------------------------------------------------
   // Public methods
   // ------------------------------------------------------------------------
   
   public GeoJsonParser setSymbol(Symbol symbol) {
-    this.symbol = symbol;
+    mutableSettings().symbol = symbol;
     return this;
   }
   
   public GeoJsonParser setOutSpatialReference(SpatialReference outSR) {
-    this.outSR = outSR;
+    mutableSettings().setOutSpatialReference(outSR);
+    return this;
+  }
+  
+  /**
+   * Sets the number of threads used by {@link #parseFeatures(File)}, {@link #parseGeometries(File)}
+   * and their overloads to build and project geometries. The input is still read by the 
+   * calling thread, which hands batches of features to a {@link ForkJoinPool} of this size; 
+   * the features are returned in their original order. The default of 1 decodes every 
+   * feature on the calling thread. Streams and iterators always decode on the calling thread.
+   * Features decoded in parallel batches keep their attributes in a map each, even with
+   * {@link #setColumnarAttributes(boolean)}, except for memory-mapped files, whose 
+   * chunks are read and decoded by one task each.
+   * 
+   * @param parallelism number of decoding threads, at least 1.
+   * @return this parser.
+   */
+  public GeoJsonParser setParallelism(int parallelism) {
+    mutableSettings().setParallelism(parallelism);
+    return this;
+  }
+  
+  /**
+   * Sets whether files are read through a read-only memory mapping instead of a file
+   * stream. This saves a copy of the data for each read and suits very large files.
+   * When parallelism is also enabled, the mapped file is first scanned for the byte 
+   * range of each feature, and ranges are then both parsed and decoded in parallel.
+   * 
+   * @param memoryMapped true to map files into memory.
+   * @return this parser.
+   */
+  public GeoJsonParser setMemoryMapped(boolean memoryMapped) {
+    mutableSettings().memoryMapped = memoryMapped;
+    return this;
+  }
+  
+  /**
+   * Sets whether the features of files are cached. The first time a file is parsed
+   * by {@link #parseFeatures(File)} or {@link #streamFeatures(Path)}, its projected
+   * features are written to a binary file next to it, named after it with the extension
+   * ".cache". As long as the file is not modified, later loads with the same output 
+   * spatial reference read that cache through a memory mapping and rebuild the 
+   * geometries without parsing any JSON. Files with z values are not cached.
+   * 
+   * @param cached true to cache parsed features.
+   * @return this parser.
+   */
+  public GeoJsonParser setCached(boolean cached) {
+    mutableSettings().cached = cached;
+    return this;
+  }
+  
+  /**
+   * Sets whether feature attributes are stored by column. Instead of a hash map per
+   * feature, the parser infers one schema for the input and stores each property in a
+   * column of primitive values, with string values dictionary-encoded. Each feature's
+   * attributes are then a read-only map view over its row of the columns. This 
+   * greatly reduces heap use for inputs with many properties per feature.
+   * 
+   * <p>
+   * {@link #parseFeatures(File)} and {@link #parseGeometries(File)} share one schema per 
+   * file, or per chunk of a memory-mapped file parsed in parallel, and GeoJSON text 
+   * sequences one schema per batch of records. {@link #streamFeatures(Path)} and
+   * {@link #iterateFeatures(InputStream)} hand out each feature while the next ones are
+   * still being read, so they ignore this setting and keep a map per feature, and so
+   * does parsing with a parallelism greater than 1, unless the file is memory-mapped.
+   * 
+   * @param columnarAttributes true to store attributes by column.
+   * @return this parser.
+   */
+  public GeoJsonParser setColumnarAttributes(boolean columnarAttributes) {
+    mutableSettings().columnarAttributes = columnarAttributes;
+    return this;
+  }
+  
+  /**
+   * Sets an extent outside of which features are skipped, for example the current 
+   * extent of the map. A feature is kept if its bounding box intersects the extent;
+   * the feature's "bbox" member is used when present, otherwise the bounding box of 
+   * its coordinates. Skipped features are rejected before their geometry is built or
+   * projected, and their coordinates are not even decoded if the "bbox" member comes 
+   * before the geometry. Files are not cached while a filter extent is set.
+   * 
+   * @param filterEnvelope extent in the output spatial reference, or null to keep all features.
+   * @return this parser.
+   */
+  public GeoJsonParser setFilterEnvelope(Envelope filterEnvelope) {
+    mutableSettings().setFilterEnvelope(filterEnvelope);
+    return this;
+  }
+  
+  /**
+   * Sets the names of the properties to keep as attributes. Other properties are 
+   * skipped at the token level, without their values being decoded.
+   * 
+   * @param outFields names of the properties to keep; none to keep all properties.
+   * @return this parser.
+   */
+  public GeoJsonParser setOutFields(String... outFields) {
+    mutableSettings().setOutFields(outFields);
+    return this;
+  }
+  
+  /**
+   * Sets a predicate on the attributes of each feature; features that do not match
+   * are skipped. The predicate sees only the properties kept by {@link #setOutFields(String...)}.
+   * When the "properties" member of a feature comes before its "geometry" member, 
+   * as is usual, the geometry of a rejected feature is skipped without being decoded.
+   * Files are not cached while an attribute filter is set.
+   * 
+   * @param attributeFilter predicate on the attributes, or null to keep all features.
+   * @return this parser.
+   */
+  public GeoJsonParser setAttributeFilter(Predicate<Map<String, Object>> attributeFilter) {
+    mutableSettings().attributeFilter = attributeFilter;
+    return this;
+  }
+  
+  /**
+   * Sets whether the features of a GeoJSON text sequence are returned in the order of
+   * the input when they are decoded by several threads. Unordered output returns each
+   * batch of features as soon as it is decoded, so one slow batch does not hold back
+   * the others. Features of a FeatureCollection are always returned in order.
+   * 
+   * @param ordered false to return features in the order they are decoded.
+   * @return this parser.
+   */
+  public GeoJsonParser setOrdered(boolean ordered) {
+    mutableSettings().ordered = ordered;
+    return this;
+  }
+  
+  /**
+   * Sets the name of an attribute holding the "id" member of each feature, which is 
+   * otherwise skipped, so that features can be told apart across loads. The attribute
+   * replaces a property of the same name, and is kept whatever the out fields. The 
+   * attribute filter sees it when the "id" member comes before the "properties" member,
+   * as is usual. Files are not cached while an id field is set.
+   * 
+   * @param idField name of the attribute, or null to skip the "id" member.
+   * @return this parser.
+   */
+  public GeoJsonParser setIdField(String idField) {
+    mutableSettings().idField = idField;
+    return this;
+  }
+  
+  /**
+   * Sets a tolerance by which lines and polygons are simplified while they are decoded,
+   * for example the size of a pixel at the smallest scale the features are shown at.
+   * Vertices that lie within the tolerance of the simplified outline are removed with
+   * the Douglas-Peucker algorithm, which reduces memory use and drawing time together. 
+   * Rings keep at least three distinct vertices, so that small islands do not vanish.
+   * Files are not cached while a tolerance is set.
+   * 
+   * @param tolerance largest deviation of the simplified geometries, in units of the
+   * output spatial reference; 0 keeps every vertex.
+   * @return this parser.
+   */
+  public GeoJsonParser setGeneralizationTolerance(double tolerance) {
+    mutableSettings().setGeneralizationTolerance(tolerance);
     return this;
   }
   
   public List<Feature> parseFeatures(File file) {
     try {
-      JsonParser parser = new JsonFactory().createJsonParser(file);
+      if (isCacheable()) {
+        return parseCachedFile(file);
+      }
+      if (settings.memoryMapped) {
+        return parseMappedFile(file, true);
+      }
+      JsonParser parser = JSON_FACTORY.createJsonParser(openFile(file));
       return parseFeatures(parser);
     } catch (Exception ex) {
       throw new RuntimeException(ex);
@@ -119,7 +342,7 @@ public final class GeoJsonParser {
   
   public List<Feature> parseFeatures(String str) {
     try {
-      JsonParser parser = new JsonFactory().createJsonParser(str);
+      JsonParser parser = JSON_FACTORY.createJsonParser(str);
       return parseFeatures(parser);
     } catch (Exception ex) {
       throw new RuntimeException(ex);
@@ -128,7 +351,10 @@ public final class GeoJsonParser {
   
   public List<Geometry> parseGeometries(File file) {
     try {
-      JsonParser parser = new JsonFactory().createJsonParser(file);
+      if (settings.memoryMapped) {
+        return toGeometries(parseMappedFile(file, false));
+      }
+      JsonParser parser = JSON_FACTORY.createJsonParser(openFile(file));
       return parseGeometries(parser);
     } catch (Exception ex) {
       throw new RuntimeException(ex);
@@ -137,290 +363,1398 @@ public final class GeoJsonParser {
   
   public List<Geometry> parseGeometries(String str) {
     try {
-      JsonParser parser = new JsonFactory().createJsonParser(str);
+      JsonParser parser = JSON_FACTORY.createJsonParser(str);
       return parseGeometries(parser);
     } catch (Exception ex) {
       throw new RuntimeException(ex);
     }
   }
   
+  /**
+   * Returns a lazy stream over the features in the given file. Features are parsed
+   * on demand as the stream is consumed, so a caller can stop early without reading
+   * the rest of the file. The stream should be closed after use, for example with a
+   * try-with-resources statement; it is also closed once the last feature has been read.
+   * 
+   * @param path a file containing a FeatureCollection or a GeometryCollection.
+   * @return a sequential, ordered stream of features.
+   */
+  public Stream<Feature> streamFeatures(Path path) {
+    FeatureCache.Writer cacheWriter = null;
+    try {
+      if (isCacheable()) {
+        int outWkid = settings.projector.getOutSpatialReference().getID();
+        List<Feature> features = FeatureCache.read(path.toFile(), outWkid, settings.symbol);
+        if (features != null) {
+          return features.stream();
+        }
+        try {
+          cacheWriter = FeatureCache.openWriter(path.toFile(), outWkid);
+        } catch (IOException ex) {
+          // the features are still streamed, only the cache is lost
+        }
+      }
+      JsonParser parser = JSON_FACTORY.createJsonParser(openFile(path.toFile()));
+      // features are handed out while the next ones are read, so they keep a map each
+      final FeatureIterator iterator = new FeatureIterator(new FeatureReader(parser, true, false, false), cacheWriter);
+      // from now on the iterator commits or aborts the cache
+      cacheWriter = null;
+      Spliterator<Feature> spliterator = Spliterators.spliteratorUnknownSize(
+          iterator, Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+      return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+        @Override
+        public void run() {
+          iterator.close();
+        }
+      });
+    } catch (Exception ex) {
+      if (cacheWriter != null) {
+        // do not leave the sections of the cache next to the file
+        cacheWriter.abort();
+      }
+      throw new RuntimeException(ex);
+    }
+  }
+  
+  /**
+   * Returns an iterator that parses the features of the given input on demand.
+   * The input stream is not closed by the iterator, it remains owned by the caller.
+   * Input compressed with gzip or deflate is decompressed as it is read.
+   * 
+   * @param in an input stream containing a FeatureCollection or a GeometryCollection.
+   * @return an iterator over the features.
+   */
+  public Iterator<Feature> iterateFeatures(InputStream in) {
+    try {
+      JsonParser parser = JSON_FACTORY.createJsonParser(CompressedInput.decompress(in));
+      parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+      return new FeatureIterator(new FeatureReader(parser, true, false, false), null);
+    } catch (Exception ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+  
+  /**
+   * Parses a <a href="https://tools.ietf.org/html/rfc8142">GeoJSON text sequence</a>, 
+   * in which each feature is a separate GeoJSON text, preceded by a record separator 
+   * or terminated by a new line. Records that are not valid JSON are skipped. With a 
+   * parallelism greater than 1, records are split on the calling thread and decoded 
+   * in batches on a {@link ForkJoinPool}.
+   * 
+   * @param file a file containing a GeoJSON text sequence.
+   * @return the features of the sequence.
+   */
+  public List<Feature> parseSeqFeatures(File file) {
+    List<Feature> features = new LinkedList<Feature>();
+    try (SeqIterator iterator = new SeqIterator(CompressedInput.open(file), false, 0)) {
+      while (iterator.hasNext()) {
+        features.add(iterator.next());
+      }
+      return features;
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+  
+  /**
+   * Returns a lazy stream over the features of a GeoJSON text sequence. Records are
+   * read and decoded as the stream is consumed, and at most two batches per thread
+   * are held in memory at a time. The stream should be closed after use.
+   * 
+   * @param path a file containing a GeoJSON text sequence.
+   * @return a sequential stream of features.
+   * @see #parseSeqFeatures(File)
+   */
+  public Stream<Feature> streamSeqFeatures(Path path) {
+    try {
+      return toStream(new SeqIterator(CompressedInput.open(path.toFile()), false, 0));
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+  
+  /**
+   * Returns a stream that follows a GeoJSON text sequence that is still being appended
+   * to, like "tail -f". Once the end of the file is reached, the file is polled for 
+   * new records at the given interval, and a record is only decoded once its 
+   * terminating new line has been written. The stream never ends by itself: it ends 
+   * when it is closed, or when the thread consuming it is interrupted. Compressed 
+   * files cannot be followed, since their end is only known once they are complete.
+   * 
+   * @param path a file containing a GeoJSON text sequence.
+   * @param pollInterval time to wait between polls once the end of the file is reached.
+   * @param unit unit of the poll interval.
+   * @return a sequential stream of features.
+   */
+  public Stream<Feature> tailSeqFeatures(Path path, long pollInterval, TimeUnit unit) {
+    try {
+      return toStream(new SeqIterator(Files.newInputStream(path), true, unit.toMillis(pollInterval)));
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+  
+  /**
+   * Returns an iterator that reads the features of a GeoJSON text sequence on demand.
+   * The input stream is closed once the last feature has been read. Input compressed
+   * with gzip or deflate is decompressed as it is read.
+   * 
+   * @param in an input stream containing a GeoJSON text sequence.
+   * @return an iterator over the features.
+   */
+  public Iterator<Feature> iterateSeqFeatures(InputStream in) {
+    try {
+      return new SeqIterator(CompressedInput.decompress(in), false, 0);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+  
   // ------------------------------------------------------------------------
   // Private methods
   // ------------------------------------------------------------------------
   
-  private List<Feature> parseFeatures(JsonParser parser) {
+  private Settings mutableSettings() {
+    if (immutable) {
+      throw new IllegalStateException("a parser made by a builder cannot be reconfigured");
+    }
+    return settings;
+  }
+  
+  private Stream<Feature> toStream(final SeqIterator iterator) {
+    Spliterator<Feature> spliterator = Spliterators.spliteratorUnknownSize(
+        iterator, (settings.ordered ? Spliterator.ORDERED : 0) | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+    return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+      @Override
+      public void run() {
+        iterator.close();
+      }
+    });
+  }
+  
+  /**
+   * Decodes a batch of records of a text sequence. The records are parsed together as
+   * a sequence of root-level values; if that fails, each record is parsed on its own
+   * so that only the invalid ones are skipped.
+   */
+  private List<Feature> decodeRecords(RecordSplitter.Records records) throws IOException {
+    FeatureReader reader = new FeatureReader(JSON_FACTORY.createJsonParser(records.data, 0, records.length), true, true);
     try {
-      JsonNode node = mapper.readTree(parser);
-      String type = node.path(FIELD_TYPE).getTextValue();
-      if (type.equals(FIELD_FEATURE_COLLECTION)) {
-        ArrayNode jsonFeatures = (ArrayNode) node.path(FIELD_FEATURES);
-        return parseFeatures(jsonFeatures);
-      } else if (type.equals(FIELD_GEOMETRY_COLLECTION)) {
-        ArrayNode jsonFeatures = (ArrayNode) node.path(FIELD_GEOMETRIES);
-        List<Geometry> geometries = parseGeometries(jsonFeatures);
-        List<Feature> features = new LinkedList<Feature>();
-        for (Geometry g : geometries) {
-          features.add(new Graphic(g, symbol));  
-        }
-        return features;
+      return readAll(reader);
+    } catch (JsonProcessingException ex) {
+      return decodeEachRecord(records);
+    } finally {
+      reader.close();
+    }
+  }
+  
+  private List<Feature> decodeEachRecord(RecordSplitter.Records records) throws IOException {
+    List<Feature> features = new LinkedList<Feature>();
+    for (int i = 0; i < records.count; i++) {
+      JsonParser parser = JSON_FACTORY.createJsonParser(records.data, records.starts[i], records.ends[i] - records.starts[i]);
+      FeatureReader reader = new FeatureReader(parser, true, true);
+      try {
+        features.addAll(readAll(reader));
+      } catch (JsonProcessingException ex) {
+        // not a valid GeoJSON text, skip it as RFC 8142 recommends
+      } finally {
+        reader.close();
       }
+    }
+    return features;
+  }
+  
+  private List<Feature> parseFeatures(JsonParser parser) {
+    return readFeatures(parser, true);
+  }
+  
+  private List<Geometry> parseGeometries(JsonParser parser) {
+    return toGeometries(readFeatures(parser, false));
+  }
+  
+  private List<Geometry> toGeometries(List<Feature> features) {
+    List<Geometry> geometries = new LinkedList<Geometry>();
+    for (Feature f : features) {
+      geometries.add(f.getGeometry());
+    }
+    return geometries;
+  }
+  
+  private List<Feature> readFeatures(JsonParser parser, boolean acceptFeatures) {
+    FeatureReader reader = newReader(parser, acceptFeatures);
+    try {
+      return settings.parallelism > 1 ? readAllParallel(reader) : readAll(reader);
     } catch (Exception ex) {
       throw new RuntimeException(ex);
+    } finally {
+      reader.close();
     }
-    return Collections.emptyList();
   }
   
-  private List<Feature> parseFeatures(ArrayNode jsonFeatures) {
-    List<Feature> features = new LinkedList<Feature>();
-    for (JsonNode jsonFeature : jsonFeatures) {
-      String type = jsonFeature.path(FIELD_TYPE).getTextValue();
-      if (!FIELD_FEATURE.equals(type)) {
-        continue;
+  /**
+   * @return true if the output does not depend on anything but the output spatial
+   * reference, so that it can be read from and written to the cache.
+   */
+  private boolean isCacheable() {
+    return settings.cached && settings.filterEnvelope == null && settings.outFields == null
+        && settings.attributeFilter == null && settings.generalizationTolerance == 0
+        && settings.idField == null;
+  }
+  
+  /**
+   * @return true if {@link #streamFeatures(Path)} and {@link #parseFeatures(File)} read
+   * and write the cache of files, rather than always parsing them.
+   */
+  boolean usesCache() {
+    return isCacheable();
+  }
+  
+  /**
+   * Reads the features of a file from its cache, or parses the file and writes
+   * its cache. Failing to write the cache does not fail the parse.
+   */
+  private List<Feature> parseCachedFile(File file) throws IOException {
+    int outWkid = settings.projector.getOutSpatialReference().getID();
+    List<Feature> features = FeatureCache.read(file, outWkid, settings.symbol);
+    if (features != null) {
+      return features;
+    }
+    FeatureReader reader = newReader(JSON_FACTORY.createJsonParser(openFile(file)), true);
+    try {
+      features = settings.parallelism > 1 ? readAllParallel(reader) : readAll(reader);
+    } finally {
+      reader.close();
+    }
+    if (!reader.hasZ()) {
+      FeatureCache.Writer writer = null;
+      try {
+        writer = FeatureCache.openWriter(file, outWkid);
+        for (Feature f : features) {
+          writer.add(f);
+        }
+        writer.commit();
+      } catch (IOException ex) {
+        if (writer != null) {
+          writer.abort();
+        }
       }
-      Geometry g = parseGeometry(jsonFeature.path(FIELD_GEOMETRY));
-      if (outSR != null && outSR.getID() != 4326) {
-        g = GeometryEngine.project(g, inSR, outSR);
+    }
+    return features;
+  }
+  
+  /**
+   * Opens a file through a memory mapping or a file stream, and decompresses it
+   * if it is compressed. Compressed files are never mapped, since they are read 
+   * once, sequentially, by the decompressor.
+   */
+  private InputStream openFile(File file) throws IOException {
+    if (CompressedInput.isCompressed(file)) {
+      return CompressedInput.open(file);
+    }
+    return settings.memoryMapped ? new MappedFile(file).openStream() : new FileInputStream(file);
+  }
+  
+  private List<Feature> parseMappedFile(File file, boolean acceptFeatures) throws IOException {
+    if (CompressedInput.isCompressed(file)) {
+      // the byte ranges of members are only known in the decompressed text
+      return readFeatures(JSON_FACTORY.createJsonParser(CompressedInput.open(file)), acceptFeatures);
+    }
+    MappedFile mapped = new MappedFile(file);
+    if (settings.parallelism > 1) {
+      MappedFile.Members members = acceptFeatures 
+          ? mapped.findMembers(FIELD_FEATURES, FIELD_GEOMETRIES) : mapped.findMembers(FIELD_GEOMETRIES);
+      if (members != null) {
+        return readMembersParallel(mapped, members, acceptFeatures);
       }
-      Map<String, Object> attributes = parseProperties(jsonFeature.path(FIELD_PROPERTIES));
-      Feature f = new Graphic(g, symbol, attributes);
-      features.add(f);
-    } 
-    return features; 
+    }
+    return readFeatures(JSON_FACTORY.createJsonParser(mapped.openStream()), acceptFeatures);
   }
   
-  private List<Geometry> parseGeometries(JsonParser parser) {
+  /**
+   * Groups the members of the features array of a mapped file into byte ranges of 
+   * similar size, and parses and decodes each range as a separate task. Results are
+   * concatenated in the order of the ranges.
+   */
+  private List<Feature> readMembersParallel(MappedFile mapped, MappedFile.Members members, 
+      boolean acceptFeatures) {
+    long chunkSize = Math.max(PARALLEL_MIN_CHUNK_SIZE, mapped.size() / (settings.parallelism * 4));
+    List<ChunkTask> tasks = new ArrayList<ChunkTask>();
+    int first = 0;
+    for (int i = 0; i < members.count; i++) {
+      if (i == members.count - 1 || members.ends[i] - members.starts[first] >= chunkSize) {
+        tasks.add(new ChunkTask(mapped, members.arrayName, members.starts[first], members.ends[i], acceptFeatures));
+        first = i + 1;
+      }
+    }
+    ForkJoinPool pool = new ForkJoinPool(settings.parallelism);
     try {
-      JsonNode node = mapper.readTree(parser);
-      String type = node.path(FIELD_TYPE).getTextValue();
-      if (type.equals(FIELD_GEOMETRY_COLLECTION)) {
-        ArrayNode jsonFeatures = (ArrayNode) node.path(FIELD_GEOMETRIES);
-        return parseGeometries(jsonFeatures);
+      List<Feature> features = new LinkedList<Feature>();
+      for (Future<List<Feature>> result : pool.invokeAll(tasks)) {
+        features.addAll(result.get());
       }
+      return features;
     } catch (Exception ex) {
       throw new RuntimeException(ex);
+    } finally {
+      pool.shutdown();
     }
-    return Collections.emptyList();
   }
   
-  private List<Geometry> parseGeometries(ArrayNode jsonGeometries) {
-    List<Geometry> geometries = new LinkedList<Geometry>();
-    for (JsonNode jsonGeometry : jsonGeometries) {
-      Geometry g = parseGeometry(jsonGeometry);
-      if (outSR != null && outSR.getID() != 4326) {
-        g = GeometryEngine.project(g, inSR, outSR);
+  /**
+   * Creates the reader of a whole collection, which is decoded in parallel batches when
+   * the parallelism is greater than 1. The features of a batch are built while the next
+   * batches are read, so attributes are then kept in a map per feature.
+   */
+  private FeatureReader newReader(JsonParser parser, boolean acceptFeatures) {
+    boolean columnar = settings.columnarAttributes && settings.parallelism == 1;
+    return new FeatureReader(parser, acceptFeatures, false, columnar);
+  }
+  
+  private List<Feature> readAll(FeatureReader reader) throws IOException {
+    List<Feature> features = new LinkedList<Feature>();
+    Feature f;
+    while ((f = reader.next()) != null) {
+      features.add(f);
+    }
+    return features;
+  }
+  
+  /**
+   * Reads batches of feature records on the calling thread and decodes them on a 
+   * fork-join pool, while the next batches are being read. Batches are joined in the
+   * order they were read, and at most two batches per thread are in flight at a time
+   * so that memory use stays bounded.
+   */
+  private List<Feature> readAllParallel(FeatureReader reader) throws IOException {
+    if (reader.isColumnar()) {
+      throw new IllegalStateException("attributes stored by column cannot be decoded in parallel batches");
+    }
+    ForkJoinPool pool = new ForkJoinPool(settings.parallelism);
+    try {
+      List<Feature> features = new LinkedList<Feature>();
+      Deque<DecodeTask> pending = new ArrayDeque<DecodeTask>();
+      FeatureRecord[] batch;
+      while ((batch = reader.nextBatch(PARALLEL_BATCH_SIZE)) != null) {
+        DecodeTask task = new DecodeTask(batch, new Feature[batch.length], 0, batch.length);
+        pool.execute(task);
+        pending.addLast(task);
+        if (pending.size() > 2 * settings.parallelism) {
+          Collections.addAll(features, pending.removeFirst().joinFeatures());
+        }
       }
-      geometries.add(g);
-    } 
-    return geometries; 
+      while (!pending.isEmpty()) {
+        Collections.addAll(features, pending.removeFirst().joinFeatures());
+      }
+      return features;
+    } finally {
+      pool.shutdown();
+    }
   }
-    
-  private Map<String, Object> parseProperties(JsonNode node) {
+  
+  /**
+   * Builds the geometry of a feature record, projects it and returns the feature.
+   */
+  private Feature decode(FeatureRecord record) {
+    return createFeature(generalize(settings.projector.project(decodeGeometry(record))), record.attributes);
+  }
+  
+  /**
+   * Builds the geometry of a feature record. When the projector works on coordinates
+   * the geometry is built from projected, simplified coordinates, otherwise it is 
+   * returned in the input spatial reference. Polygon rings are wound the Esri way.
+   */
+  private Geometry decodeGeometry(FeatureRecord record) {
+    if (record.type == null) {
+      return null;
+    }
+    boolean polygon = record.type == GeometryType.POLYGON || record.type == GeometryType.MULTI_POLYGON;
+    boolean lines = record.type == GeometryType.LINE_STRING || record.type == GeometryType.MULTI_LINE_STRING;
+    settings.projector.project(record.coordinates);
+    // the positions of a MultiPoint are read as one path, but they are not a line
+    if ((polygon || lines) && settings.generalizationTolerance > 0 && settings.projector.projectsCoordinates()) {
+      record.coordinates.simplify(settings.generalizationTolerance, polygon);
+    }
+    if (polygon) {
+      // projections to Web Mercator keep the winding of the rings
+      record.coordinates.orientRings();
+    }
+    return buildGeometry(record.type, record.coordinates);
+  }
+  
+  /**
+   * Simplifies a geometry that has been projected by the projection engine, whose
+   * coordinates could not be simplified in output units while they were decoded.
+   */
+  private Geometry generalize(Geometry g) {
+    if (settings.generalizationTolerance == 0 || settings.projector.projectsCoordinates() || !(g instanceof MultiPath)) {
+      return g;
+    }
+    return GeometryEngine.generalize(g, settings.generalizationTolerance, false);
+  }
+  
+  private Feature createFeature(Geometry g, Map<String, Object> attributes) {
+    if (attributes == null) {
+      return new Graphic(g, settings.symbol);
+    }
+    return new Graphic(g, settings.symbol, attributes);
+  }
+  
+  /**
+   * Parses the members of a "properties" object. The parser must be positioned
+   * on the value of the "properties" field; on return it is positioned on the
+   * closing token of that value.
+   */
+  private Map<String, Object> parseProperties(JsonParser parser) throws IOException {
     Map<String, Object> properties = new HashMap<String, Object>();
-    Iterator<Map.Entry<String, JsonNode>> propertyInterator = node.getFields(); 
-    while (propertyInterator.hasNext()) {
-      Map.Entry<String, JsonNode> property = propertyInterator.next();
-      JsonNode jsonValue = property.getValue();
-      if (jsonValue.isInt()) {
-        properties.put(property.getKey(), property.getValue().asInt());
-      } else if (jsonValue.isDouble()) {
-        properties.put(property.getKey(), property.getValue().asDouble());
-      } else if (jsonValue.isTextual()) {
-        properties.put(property.getKey(), property.getValue().asText());
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return properties;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (settings.outFields != null && !settings.outFields.contains(name)) {
+        parser.skipChildren();
+      } else if (token == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() == NumberType.INT) {
+        properties.put(name, parser.getIntValue());
+      } else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+        properties.put(name, parser.getDoubleValue());
+      } else if (token == JsonToken.VALUE_STRING) {
+        properties.put(name, parser.getText());
+      } else {
+        parser.skipChildren();
       }
     }
     return properties;
   }
   
   /**
-   * { "type": "Point", "coordinates": [100.0, 0.0] }
-   * @param parser
-   * @param str
-   * @return a geometry.
-   * @throws IOException 
-   * @throws JsonParseException 
+   * Parses the members of a "properties" object into a new row of the table.
+   * @return a map view over the row.
    */
-  private Geometry parseGeometry(JsonNode node) {
-    GeometryType type = GeometryType.fromString(node.path(FIELD_TYPE).getTextValue());
-    return parseCoordinates(type, node.path(FIELD_COORDINATES));
+  private Map<String, Object> parseProperties(JsonParser parser, AttributeTable table) throws IOException {
+    int row = table.addRow();
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return table.row(row);
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (settings.outFields != null && !settings.outFields.contains(name)) {
+        parser.skipChildren();
+      } else if (token == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() == NumberType.INT) {
+        table.setInt(row, name, parser.getIntValue());
+      } else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+        table.setDouble(row, name, parser.getDoubleValue());
+      } else if (token == JsonToken.VALUE_STRING) {
+        table.setString(row, name, parser.getText());
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return table.row(row);
   }
-    
-  private Geometry parseCoordinates(GeometryType type, JsonNode node) {
+  
+  /**
+   * Builds a geometry from decoded coordinates. Examples of the coordinates
+   * of each type:
+   * <pre>
+   * Point:           [100.0, 0.0]
+   * MultiPoint:      [ [100.0, 0.0], [101.0, 1.0] ]
+   * LineString:      [ [100.0, 0.0], [101.0, 1.0] ]
+   * MultiLineString: [ [ [100.0, 0.0], [101.0, 1.0] ], [ [102.0, 2.0], [103.0, 3.0] ] ]
+   * Polygon:         [ [ [100.0, 0.0], [101.0, 0.0], [101.0, 1.0], [100.0, 1.0], [100.0, 0.0] ],
+   *                    [ [100.2, 0.2], [100.8, 0.2], [100.8, 0.8], [100.2, 0.8], [100.2, 0.2] ] ]
+   * MultiPolygon:    [ [ [ [102.0, 2.0], [103.0, 2.0], [103.0, 3.0], [102.0, 3.0], [102.0, 2.0] ] ],
+   *                    [ [ [100.0, 0.0], [101.0, 0.0], [101.0, 1.0], [100.0, 1.0], [100.0, 0.0] ] ] ]
+   * </pre>
+   * @param type the GeoJSON geometry type.
+   * @param coordinates the decoded coordinates.
+   * @return a geometry.
+   */
+  private Geometry buildGeometry(GeometryType type, CoordinateBuffer coordinates) {
     Geometry g = null;
     switch (type) {
       default:
       case POINT:
-        g = parsePointCoordinates(node);    
+        g = coordinates.toPoint();
         break;
       case MULTI_POINT:
-        g = parseMultiPointCoordinates(node);
+        g = coordinates.toMultiPoint();
         break;
       case LINE_STRING:
-        g = parseLineStringCoordinates(node);
-        break;
       case MULTI_LINE_STRING:
-        g = parseMultiLineStringCoordinates(node);
+        g = coordinates.toPolyline();
         break;
       case POLYGON:
-        g = parsePolygonCoordinates(node);
-        break;
       case MULTI_POLYGON:
-        g = parseMultiPolygonCoordinates(node);
+        g = coordinates.toPolygon();
         break;
     }
     return g;
   }
   
   /**
-   * Parses a point
-   * Example:
-   * [101.0, 0.0].
-   * @param parser
-   * @return a point.
-   * @throws Exception
+   * Configures an immutable {@link GeoJsonParser}. The settings and their defaults are
+   * those of the setters of the parser. The built parser holds a copy of the settings,
+   * so the builder can be reused to build differently configured parsers.
+   *
+   * <p>
+   * A built parser is safe for concurrent use: its settings cannot change, and each
+   * call to a parse, stream or iterate method uses its own token parser and decoding
+   * buffers. One instance can therefore be shared by all the threads of an application.
+   * The symbol and the attribute filter are shared with every thread, so they must
+   * not be modified once the parser is built, and the filter must be thread-safe.
    */
-  private Point parsePointCoordinates(JsonNode node) {
-    Point p = new Point();
-    p.setXY(node.get(0).asDouble(), node.get(1).asDouble());
-    if (node.size() == 3) {
-      p.setZ(node.get(2).asDouble());
+  public static final class Builder {
+    
+    private final Settings settings = new Settings();
+    
+    /**
+     * @see GeoJsonParser#setSymbol(Symbol)
+     */
+    public Builder setSymbol(Symbol symbol) {
+      settings.symbol = symbol;
+      return this;
+    }
+    
+    /**
+     * @see GeoJsonParser#setOutSpatialReference(SpatialReference)
+     */
+    public Builder setOutSpatialReference(SpatialReference outSR) {
+      settings.setOutSpatialReference(outSR);
+      return this;
+    }
+    
+    /**
+     * @see GeoJsonParser#setParallelism(int)
+     */
+    public Builder setParallelism(int parallelism) {
+      settings.setParallelism(parallelism);
+      return this;
+    }
+    
+    /**
+     * @see GeoJsonParser#setMemoryMapped(boolean)
+     */
+    public Builder setMemoryMapped(boolean memoryMapped) {
+      settings.memoryMapped = memoryMapped;
+      return this;
+    }
+    
+    /**
+     * @see GeoJsonParser#setCached(boolean)
+     */
+    public Builder setCached(boolean cached) {
+      settings.cached = cached;
+      return this;
+    }
+    
+    /**
+     * @see GeoJsonParser#setColumnarAttributes(boolean)
+     */
+    public Builder setColumnarAttributes(boolean columnarAttributes) {
+      settings.columnarAttributes = columnarAttributes;
+      return this;
+    }
+    
+    /**
+     * @see GeoJsonParser#setFilterEnvelope(Envelope)
+     */
+    public Builder setFilterEnvelope(Envelope filterEnvelope) {
+      settings.setFilterEnvelope(filterEnvelope);
+      return this;
+    }
+    
+    /**
+     * @see GeoJsonParser#setOutFields(String...)
+     */
+    public Builder setOutFields(String... outFields) {
+      settings.setOutFields(outFields);
+      return this;
+    }
+    
+    /**
+     * @see GeoJsonParser#setAttributeFilter(Predicate)
+     */
+    public Builder setAttributeFilter(Predicate<Map<String, Object>> attributeFilter) {
+      settings.attributeFilter = attributeFilter;
+      return this;
+    }
+    
+    /**
+     * @see GeoJsonParser#setOrdered(boolean)
+     */
+    public Builder setOrdered(boolean ordered) {
+      settings.ordered = ordered;
+      return this;
+    }
+    
+    /**
+     * @see GeoJsonParser#setIdField(String)
+     */
+    public Builder setIdField(String idField) {
+      settings.idField = idField;
+      return this;
+    }
+    
+    /**
+     * @see GeoJsonParser#setGeneralizationTolerance(double)
+     */
+    public Builder setGeneralizationTolerance(double tolerance) {
+      settings.setGeneralizationTolerance(tolerance);
+      return this;
+    }
+    
+    /**
+     * @return a parser with the current settings of this builder, whose setters
+     * throw {@link IllegalStateException}.
+     */
+    public GeoJsonParser build() {
+      return new GeoJsonParser(settings.copy(), true);
     }
-    return p;
   }
   
   /**
-   * Parses a multipoint
-   * Example:
-   * [ [100.0, 0.0], [101.0, 1.0] ].
-   * @param parser
-   * @return a multipoint.
-   * @throws Exception
+   * The configuration of a parser, shared by its setters and by {@link Builder}.
    */
-  private MultiPoint parseMultiPointCoordinates(JsonNode node) {
-    MultiPoint p = new MultiPoint();
-    ArrayNode jsonPoints = (ArrayNode) node;
-    for (JsonNode jsonPoint : jsonPoints) {
-      Point point = parsePointCoordinates(jsonPoint);
-      p.add(point);
+  private static final class Settings {
+    
+    // symbology to be used for all the features
+    Symbol symbol = null;
+    
+    // output CRS can be configured to be different; the projector is resolved
+    // once when it is set, and shared with other parsers using the same CRS
+    GeometryProjector projector = GeometryProjector.create(IN_SR, null);
+    
+    // number of threads decoding features; 1 decodes on the calling thread
+    int parallelism = 1;
+    
+    // whether files are read through a memory mapping rather than a file stream
+    boolean memoryMapped = false;
+    
+    // whether parsed files are cached in a binary sidecar file
+    boolean cached = false;
+    
+    // whether attributes are stored by column rather than in a map per feature
+    boolean columnarAttributes = false;
+    
+    // features outside this extent, in the output CRS, are skipped
+    Envelope filterEnvelope = null;
+    
+    // names of the properties to keep, or null to keep all of them
+    Set<String> outFields = null;
+    
+    // features whose kept properties do not match this predicate are skipped
+    Predicate<Map<String, Object>> attributeFilter = null;
+    
+    // whether the features of a GeoJSON text sequence are returned in input order
+    boolean ordered = true;
+    
+    // largest distance, in output CRS units, by which lines and rings are simplified; 0 keeps every vertex
+    double generalizationTolerance = 0;
+    
+    // attribute holding the "id" member of features, or null to skip that member
+    String idField = null;
+    
+    void setOutSpatialReference(SpatialReference outSR) {
+      projector = GeometryProjector.create(IN_SR, outSR);
+    }
+    
+    void setParallelism(int parallelism) {
+      if (parallelism < 1) {
+        throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+      }
+      this.parallelism = parallelism;
+    }
+    
+    void setFilterEnvelope(Envelope filterEnvelope) {
+      this.filterEnvelope = filterEnvelope;
+    }
+    
+    void setOutFields(String... outFields) {
+      this.outFields = outFields == null || outFields.length == 0
+          ? null : new HashSet<String>(Arrays.asList(outFields));
+    }
+    
+    void setGeneralizationTolerance(double tolerance) {
+      if (tolerance < 0) {
+        throw new IllegalArgumentException("tolerance must not be negative: " + tolerance);
+      }
+      this.generalizationTolerance = tolerance;
+    }
+    
+    /**
+     * @return a copy of these settings, with its own copy of the filter envelope.
+     */
+    Settings copy() {
+      Settings copy = new Settings();
+      copy.symbol = symbol;
+      copy.projector = projector;
+      copy.parallelism = parallelism;
+      copy.memoryMapped = memoryMapped;
+      copy.cached = cached;
+      copy.columnarAttributes = columnarAttributes;
+      copy.filterEnvelope = filterEnvelope == null ? null : new Envelope(filterEnvelope.getXMin(),
+          filterEnvelope.getYMin(), filterEnvelope.getXMax(), filterEnvelope.getYMax());
+      copy.outFields = outFields == null ? null : Collections.unmodifiableSet(outFields);
+      copy.attributeFilter = attributeFilter;
+      copy.ordered = ordered;
+      copy.generalizationTolerance = generalizationTolerance;
+      copy.idField = idField;
+      return copy;
     }
-    return p;
   }
   
   /**
-   * Parses a line string
-   * Example:
-   * [ [100.0, 0.0], [101.0, 1.0] ].
-   * @param parser
-   * @return a polyline.
-   * @throws Exception
+   * Walks the token stream of a FeatureCollection or GeometryCollection and
+   * builds one feature at a time, as the closing brace of each member of the
+   * "features" (or "geometries") array is reached. Only the feature being built
+   * is held in memory, so heap use does not depend on the size of the input.
    */
-  private Polyline parseLineStringCoordinates(JsonNode node) {
-    Polyline g = new Polyline();
-    boolean first = true;
-    ArrayNode points = (ArrayNode) node;
-    for (JsonNode point : points) {
-      Point p = parsePointCoordinates(point);
-      if (first) {
-        g.startPath(p);
-        first = false;
+  private final class FeatureReader {
+    
+    private final JsonParser parser;
+    
+    // whether members of a "features" array are accepted, or only "geometries"
+    private final boolean acceptFeatures;
+    
+    // whether the parser is positioned inside a "features" or "geometries" array
+    private boolean inArray = false;
+    
+    // whether the current array holds bare geometries rather than features
+    private boolean geometriesOnly = false;
+    
+    // whether the input is a sequence of root-level features rather than a collection
+    private final boolean sequence;
+    
+    private boolean started = false;
+    private boolean done = false;
+    
+    // whether any feature read so far has z values
+    private boolean hasZ = false;
+    
+    // attributes of the features read, when they are stored by column
+    private final AttributeTable table;
+    
+    // filter extent in the input CRS
+    private final Envelope filter = settings.filterEnvelope == null 
+        ? null : settings.projector.unproject(settings.filterEnvelope);
+    
+    // coordinates of features that are decoded as soon as they are read
+    private final CoordinateBuffer sharedCoordinates = new CoordinateBuffer();
+    
+    FeatureReader(JsonParser parser, boolean acceptFeatures) {
+      this(parser, acceptFeatures, false);
+    }
+    
+    FeatureReader(JsonParser parser, boolean acceptFeatures, boolean sequence) {
+      this(parser, acceptFeatures, sequence, settings.columnarAttributes);
+    }
+    
+    /**
+     * @param columnar whether attributes are stored by column; only for readers whose 
+     * features are handed out once every feature has been read, since the views over 
+     * the rows of the table must not be read while rows are still being added. 
+     * {@link #readAllParallel(FeatureReader)} rejects such readers.
+     */
+    FeatureReader(JsonParser parser, boolean acceptFeatures, boolean sequence, boolean columnar) {
+      this.parser = parser;
+      this.acceptFeatures = acceptFeatures;
+      this.sequence = sequence;
+      this.table = columnar ? new AttributeTable() : null;
+    }
+    
+    /**
+     * @return true if attributes are stored by column, in which case features must not
+     * be handed out, or decoded on other threads, until every feature has been read.
+     */
+    boolean isColumnar() {
+      return table != null;
+    }
+    
+    /**
+     * @return the next feature, or null when the input is exhausted.
+     * @throws IOException
+     */
+    Feature next() throws IOException {
+      FeatureRecord record = nextRecord(sharedCoordinates);
+      return record == null ? null : decode(record);
+    }
+    
+    /**
+     * Reads a batch of records that are decoded later, each with its own coordinates.
+     * @param size maximum number of records in the batch.
+     * @return up to size records, or null when the input is exhausted.
+     * @throws IOException
+     */
+    FeatureRecord[] nextBatch(int size) throws IOException {
+      FeatureRecord[] batch = new FeatureRecord[size];
+      int count = 0;
+      FeatureRecord record;
+      while (count < size && (record = nextRecord(new CoordinateBuffer())) != null) {
+        batch[count++] = record;
+      }
+      if (count == 0) {
+        return null;
+      }
+      return count == size ? batch : Arrays.copyOf(batch, count);
+    }
+    
+    /**
+     * @param coordinates buffer receiving the coordinates of the feature.
+     * @return the next undecoded feature, or null when the input is exhausted.
+     * @throws IOException
+     */
+    FeatureRecord nextRecord(CoordinateBuffer coordinates) throws IOException {
+      while (true) {
+        if (!sequence && !inArray && !advanceToArray()) {
+          return null;
+        }
+        JsonToken token = parser.nextToken();
+        if (token == null && sequence) {
+          return null;
+        }
+        if (token == JsonToken.END_ARRAY) {
+          inArray = false;
+          continue;
+        }
+        if (token != JsonToken.START_OBJECT) {
+          parser.skipChildren();
+          continue;
+        }
+        FeatureRecord record = geometriesOnly ? readGeometry(coordinates) : readFeature(coordinates);
+        if (record != null) {
+          hasZ |= coordinates.hasZ;
+          return record;
+        }
+      }
+    }
+    
+    boolean hasZ() {
+      return hasZ;
+    }
+    
+    void close() {
+      try {
+        parser.close();
+      } catch (IOException ex) {
+        // nothing more can be read anyway
+      }
+    }
+    
+    /**
+     * Moves through the fields of the root object up to the start of the next 
+     * array of features or geometries, skipping the values of all other fields.
+     */
+    private boolean advanceToArray() throws IOException {
+      if (done) {
+        return false;
+      }
+      if (!started) {
+        started = true;
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+          done = true;
+          return false;
+        }
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.START_ARRAY) {
+          if (acceptFeatures && FIELD_FEATURES.equals(name)) {
+            geometriesOnly = false;
+            inArray = true;
+            return true;
+          } else if (FIELD_GEOMETRIES.equals(name)) {
+            geometriesOnly = true;
+            inArray = true;
+            return true;
+          }
+        }
+        parser.skipChildren();
+      }
+      done = true;
+      return false;
+    }
+    
+    /**
+     * { "type": "Feature", "geometry": {...}, "properties": {...} }
+     */
+    private FeatureRecord readFeature(CoordinateBuffer coordinates) throws IOException {
+      String type = null;
+      GeometryType geometryType = null;
+      Map<String, Object> attributes = null;
+      // whether the feature's bbox member was read, and whether the feature passes
+      // the filters read so far; the geometry of a rejected feature is not decoded
+      boolean hasBbox = false;
+      boolean accepted = true;
+      Object id = null;
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (FIELD_TYPE.equals(name)) {
+          type = parser.getText();
+        } else if (FIELD_GEOMETRY.equals(name) && token == JsonToken.START_OBJECT) {
+          if (accepted) {
+            geometryType = readGeometryObject(coordinates);
+          } else {
+            parser.skipChildren();
+          }
+        } else if (FIELD_BBOX.equals(name) && filter != null && token == JsonToken.START_ARRAY) {
+          hasBbox = true;
+          accepted &= readBbox();
+        } else if (FIELD_PROPERTIES.equals(name) && attributes == null) {
+          attributes = table != null ? parseProperties(parser, table) : parseProperties(parser);
+          putId(attributes, id);
+          accepted &= settings.attributeFilter == null || settings.attributeFilter.test(attributes);
+        } else if (FIELD_ID.equals(name) && settings.idField != null && token.isScalarValue()) {
+          id = readId(token);
+          if (attributes != null) {
+            putId(attributes, id);
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+      if (attributes == null) {
+        attributes = table != null ? table.row(table.addRow()) : new HashMap<String, Object>();
+        putId(attributes, id);
+        accepted &= settings.attributeFilter == null || settings.attributeFilter.test(attributes);
+      }
+      if (!accepted 
+          || !FIELD_FEATURE.equals(type) 
+          || (filter != null && !hasBbox && !isInFilter(geometryType, coordinates))) {
+        if (table != null) {
+          table.removeLastRow();
+        }
+        return null;
+      }
+      return new FeatureRecord(geometryType, coordinates, attributes);
+    }
+    
+    /**
+     * @return the value of an "id" member: an Integer or a Double for numbers that fit, 
+     * otherwise its text.
+     */
+    private Object readId(JsonToken token) throws IOException {
+      if (token == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() == NumberType.INT) {
+        return Integer.valueOf(parser.getIntValue());
+      } else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+        return Double.valueOf(parser.getDoubleValue());
+      }
+      return parser.getText();
+    }
+    
+    /**
+     * Stores the id of a feature in its attributes; the attributes of the feature being
+     * read are the last row of the table when they are stored by column.
+     */
+    private void putId(Map<String, Object> attributes, Object id) {
+      if (id == null) {
+        return;
+      }
+      if (table == null) {
+        attributes.put(settings.idField, id);
+      } else if (id instanceof Integer) {
+        table.setInt(table.getRowCount() - 1, settings.idField, ((Integer) id).intValue());
+      } else if (id instanceof Double) {
+        table.setDouble(table.getRowCount() - 1, settings.idField, ((Double) id).doubleValue());
       } else {
-        g.lineTo(p);
-      }  
+        table.setString(table.getRowCount() - 1, settings.idField, (String) id);
+      }
+    }
+    
+    /**
+     * { "type": "Point", "coordinates": [100.0, 0.0] }
+     */
+    private FeatureRecord readGeometry(CoordinateBuffer coordinates) throws IOException {
+      GeometryType type = readGeometryObject(coordinates);
+      if (filter != null && !isInFilter(type, coordinates)) {
+        return null;
+      }
+      return new FeatureRecord(type, coordinates, null);
+    }
+    
+    private boolean isInFilter(GeometryType type, CoordinateBuffer coordinates) {
+      return type != null && coordinates.intersects(
+          filter.getXMin(), filter.getYMin(), filter.getXMax(), filter.getYMax());
+    }
+    
+    /**
+     * Reads a bbox member, [xmin, ymin, xmax, ymax] or [xmin, ymin, zmin, xmax, ymax, zmax],
+     * and tests it against the filter. A malformed bbox passes.
+     */
+    private boolean readBbox() throws IOException {
+      double[] values = new double[6];
+      int count = 0;
+      JsonToken token;
+      while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+        if (count < values.length && (token == JsonToken.VALUE_NUMBER_FLOAT || token == JsonToken.VALUE_NUMBER_INT)) {
+          values[count] = DecimalLexer.readDouble(parser);
+        }
+        count++;
+        parser.skipChildren();
+      }
+      if (count != 4 && count != 6) {
+        return true;
+      }
+      int half = count / 2;
+      return values[0] <= filter.getXMax() && values[half] >= filter.getXMin()
+          && values[1] <= filter.getYMax() && values[half + 1] >= filter.getYMin();
+    }
+    
+    /**
+     * Reads the members of a geometry object, decoding its coordinates into the buffer.
+     * @return the geometry type, or null if it is missing or not supported.
+     */
+    private GeometryType readGeometryObject(CoordinateBuffer coordinates) throws IOException {
+      GeometryType type = null;
+      coordinates.reset();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        parser.nextToken();
+        if (FIELD_TYPE.equals(name)) {
+          type = GeometryType.fromString(parser.getText());
+        } else if (FIELD_COORDINATES.equals(name)) {
+          coordinates.read(parser);
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return type;
     }
-    return g;
   }
   
   /**
-   * Parses a multi line string
-   * Example:
-   * [
-   *   [ [100.0, 0.0], [101.0, 1.0] ],
-   *   [ [102.0, 2.0], [103.0, 3.0] ]
-   * ]
-   * @param parser
-   * @return a polyline
-   * @throws Exception
+   * A feature that has been read from the token stream but whose geometry has not
+   * been built yet. The type is null if the feature has no geometry, and attributes 
+   * are null for members of a GeometryCollection.
    */
-  private Polyline parseMultiLineStringCoordinates(JsonNode node) {
-    Polyline g = new Polyline();
-    ArrayNode jsonLines = (ArrayNode) node;
-    for (JsonNode jsonLine : jsonLines) {
-      Polyline line = parseLineStringCoordinates(jsonLine);
-      g.add(line, false);
+  private static final class FeatureRecord {
+    
+    final GeometryType type;
+    final CoordinateBuffer coordinates;
+    final Map<String, Object> attributes;
+    
+    FeatureRecord(GeometryType type, CoordinateBuffer coordinates, Map<String, Object> attributes) {
+      this.type = type;
+      this.coordinates = coordinates;
+      this.attributes = attributes;
     }
-    return g;
   }
   
   /**
-   * Example:
-   * [ [100.0, 0.0], [101.0, 0.0], [101.0, 1.0], [100.0, 1.0], [100.0, 0.0] ]
-   * @param parser
-   * @return a polygon
-   * @throws JsonParseException
-   * @throws IOException
+   * Decodes a range of a batch of feature records, splitting the range in halves
+   * until it is small enough to be decoded by a single thread. The geometries of
+   * each such range are projected together.
    */
-  private Polygon parseSimplePolygonCoordinates(JsonNode node) {
-    Polygon g = new Polygon();
-    boolean first = true;
-    ArrayNode points = (ArrayNode) node;
-    for (JsonNode point : points) {
-      Point p = parsePointCoordinates(point);
-      if (first) {
-        g.startPath(p);
-        first = false;
+  private final class DecodeTask extends RecursiveAction {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final FeatureRecord[] records;
+    private final Feature[] features;
+    private final int from;
+    private final int to;
+    
+    DecodeTask(FeatureRecord[] records, Feature[] features, int from, int to) {
+      this.records = records;
+      this.features = features;
+      this.from = from;
+      this.to = to;
+    }
+    
+    /**
+     * Waits for the whole batch to be decoded.
+     * @return the decoded features, in the order of the records.
+     */
+    Feature[] joinFeatures() {
+      join();
+      return features;
+    }
+    
+    @Override
+    protected void compute() {
+      if (to - from <= PARALLEL_SPLIT_THRESHOLD) {
+        Geometry[] geometries = new Geometry[to - from];
+        for (int i = from; i < to; i++) {
+          geometries[i - from] = decodeGeometry(records[i]);
+        }
+        settings.projector.project(geometries, 0, geometries.length);
+        for (int i = from; i < to; i++) {
+          features[i] = createFeature(generalize(geometries[i - from]), records[i].attributes);
+        }
       } else {
-        g.lineTo(p);
-      }  
+        int mid = (from + to) >>> 1;
+        invokeAll(new DecodeTask(records, features, from, mid), new DecodeTask(records, features, mid, to));
+      }
     }
-    g.closeAllPaths();
-    return g;
   }
   
   /**
-   * Parses a polygon string
-   * Example:
-   * without holes:
-   * [
-   *   [ [100.0, 0.0], [101.0, 0.0], [101.0, 1.0], [100.0, 1.0], [100.0, 0.0] ]
-   * ]
-   * 
-   * with holes:
-   * [
-   *   [ [100.0, 0.0], [101.0, 0.0], [101.0, 1.0], [100.0, 1.0], [100.0, 0.0] ],
-   *   [ [100.2, 0.2], [100.8, 0.2], [100.8, 0.8], [100.2, 0.8], [100.2, 0.2] ]
-   * ]
-   * @param parser
-   * @return a polygon
-   * @throws Exception
-   */
-  private Polygon parsePolygonCoordinates(JsonNode node) {
-    Polygon g = new Polygon();
-    ArrayNode jsonPolygons = (ArrayNode) node;
-    for (JsonNode jsonPolygon : jsonPolygons) {
-      Polygon simplePolygon = parseSimplePolygonCoordinates(jsonPolygon);
-      g.add(simplePolygon, false);
+   * Parses the members of an array in a byte range of a mapped file. The range is
+   * wrapped in an object with a single array field so that it reads as GeoJSON.
+   */
+  private final class ChunkTask implements Callable<List<Feature>> {
+    
+    private final MappedFile mapped;
+    private final String arrayName;
+    private final long from;
+    private final long to;
+    private final boolean acceptFeatures;
+    
+    ChunkTask(MappedFile mapped, String arrayName, long from, long to, boolean acceptFeatures) {
+      this.mapped = mapped;
+      this.arrayName = arrayName;
+      this.from = from;
+      this.to = to;
+      this.acceptFeatures = acceptFeatures;
+    }
+    
+    @Override
+    public List<Feature> call() throws IOException {
+      InputStream in = mapped.openStream("{\"" + arrayName + "\":[", from, to, "]}");
+      FeatureReader reader = new FeatureReader(JSON_FACTORY.createJsonParser(in), acceptFeatures);
+      try {
+        return readAll(reader);
+      } finally {
+        reader.close();
+      }
     }
-    return g;
   }
   
   /**
-   * Parses a multi polygon string
-   * Example:
-   *  [
-   *   [[[102.0, 2.0], [103.0, 2.0], [103.0, 3.0], [102.0, 3.0], [102.0, 2.0]]],
-   *   [[[100.0, 0.0], [101.0, 0.0], [101.0, 1.0], [100.0, 1.0], [100.0, 0.0]],
-   *    [[100.2, 0.2], [100.8, 0.2], [100.8, 0.8], [100.2, 0.8], [100.2, 0.2]]]
-   *  ]
-   * @param parser
-   * @return a polygon
-   * @throws Exception
-   */ 
-  private Polygon parseMultiPolygonCoordinates(JsonNode node) {
-    Polygon g = new Polygon();
-    ArrayNode jsonPolygons = (ArrayNode) node;
-    for (JsonNode jsonPolygon : jsonPolygons) {
-      Polygon simplePolygon = parsePolygonCoordinates(jsonPolygon);
-      g.add(simplePolygon, false);
+   * Adapts a {@link FeatureReader} to an {@link Iterator}, reading one feature ahead.
+   * The reader is closed as soon as it is exhausted or fails. If a cache writer is
+   * given, each feature is also added to it, and the cache is committed only once
+   * every feature has been read.
+   */
+  private static final class FeatureIterator implements Iterator<Feature> {
+    
+    private final FeatureReader reader;
+    private FeatureCache.Writer cacheWriter;
+    private Feature next = null;
+    private boolean fetched = false;
+    
+    FeatureIterator(FeatureReader reader, FeatureCache.Writer cacheWriter) {
+      if (reader.isColumnar()) {
+        throw new IllegalStateException("attributes stored by column cannot be streamed");
+      }
+      this.reader = reader;
+      this.cacheWriter = cacheWriter;
+    }
+    
+    @Override
+    public boolean hasNext() {
+      if (!fetched) {
+        try {
+          next = reader.next();
+        } catch (Exception ex) {
+          close();
+          throw new RuntimeException(ex);
+        }
+        if (cacheWriter != null && next != null) {
+          addToCache(next);
+        }
+        fetched = true;
+        if (next == null) {
+          commitCache();
+          close();
+        }
+      }
+      return next != null;
+    }
+    
+    void close() {
+      reader.close();
+      if (cacheWriter != null) {
+        cacheWriter.abort();
+        cacheWriter = null;
+      }
+    }
+    
+    /**
+     * Adds a feature to the cache; failing to write the cache does not fail the iteration.
+     */
+    private void addToCache(Feature f) {
+      try {
+        cacheWriter.add(f);
+      } catch (IOException ex) {
+        // the features are still returned, only the cache is lost
+        cacheWriter.abort();
+        cacheWriter = null;
+      }
+    }
+    
+    private void commitCache() {
+      if (cacheWriter == null) {
+        return;
+      }
+      try {
+        if (!reader.hasZ()) {
+          cacheWriter.commit();
+        }
+      } catch (IOException ex) {
+        // the features are still returned, only the cache is lost
+      } finally {
+        cacheWriter.abort();
+        cacheWriter = null;
+      }
+    }
+    
+    @Override
+    public Feature next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Feature f = next;
+      next = null;
+      fetched = false;
+      return f;
+    }
+    
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+  
+  /**
+   * Reads a GeoJSON text sequence in batches of records, and decodes the batches on a
+   * fork-join pool while the next ones are being read, or on the calling thread if
+   * the parallelism is 1. At most two batches per thread are in flight at a time.
+   * Batches are returned in the order they were read, or in the order they complete
+   * when the output is unordered. When following a file, reaching its end waits for 
+   * more records instead of ending the iteration.
+   */
+  private final class SeqIterator implements Iterator<Feature>, AutoCloseable {
+    
+    private final RecordSplitter splitter;
+    private final boolean follow;
+    private final long pollMillis;
+    private final ForkJoinPool pool = settings.parallelism > 1 ? new ForkJoinPool(settings.parallelism) : null;
+    private final CompletionService<List<Feature>> completion = 
+        pool != null && !settings.ordered ? new ExecutorCompletionService<List<Feature>>(pool) : null;
+    private final Deque<Future<List<Feature>>> pending = new ArrayDeque<Future<List<Feature>>>();
+    private Iterator<Feature> current = Collections.<Feature>emptyIterator();
+    private boolean exhausted = false;
+    private volatile boolean closed = false;
+    
+    SeqIterator(InputStream in, boolean follow, long pollMillis) {
+      this.splitter = new RecordSplitter(in);
+      this.follow = follow;
+      this.pollMillis = pollMillis;
+    }
+    
+    @Override
+    public boolean hasNext() {
+      try {
+        while (!current.hasNext()) {
+          if (closed) {
+            return false;
+          }
+          if (pool == null) {
+            current = readBatch().iterator();
+          } else {
+            submitBatches();
+            current = pending.isEmpty() ? Collections.<Feature>emptyIterator() : takeBatch().iterator();
+          }
+          if (!current.hasNext() && pending.isEmpty()) {
+            if (exhausted) {
+              close();
+              return false;
+            }
+            if (splitter.atEnd()) {
+              Thread.sleep(pollMillis);
+            }
+          }
+        }
+        return true;
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        close();
+        return false;
+      } catch (Exception ex) {
+        close();
+        throw new RuntimeException(ex);
+      }
+    }
+    
+    @Override
+    public Feature next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return current.next();
+    }
+    
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+    
+    @Override
+    public void close() {
+      closed = true;
+      splitter.close();
+      if (pool != null) {
+        pool.shutdownNow();
+      }
+    }
+    
+    /**
+     * Reads and decodes one batch on the calling thread.
+     */
+    private List<Feature> readBatch() throws IOException {
+      RecordSplitter.Records records = nextRecords();
+      return records == null ? Collections.<Feature>emptyList() : decodeRecords(records);
+    }
+    
+    private void submitBatches() throws IOException {
+      while (pending.size() < 2 * settings.parallelism) {
+        final RecordSplitter.Records records = nextRecords();
+        if (records == null) {
+          return;
+        }
+        Callable<List<Feature>> task = new Callable<List<Feature>>() {
+          @Override
+          public List<Feature> call() throws IOException {
+            return decodeRecords(records);
+          }
+        };
+        pending.addLast(completion != null ? completion.submit(task) : pool.submit(task));
+      }
+    }
+    
+    private List<Feature> takeBatch() throws InterruptedException, ExecutionException {
+      if (completion == null) {
+        return pending.removeFirst().get();
+      }
+      Future<List<Feature>> done = completion.take();
+      pending.remove(done);
+      return done.get();
+    }
+    
+    /**
+     * @return the next batch of records, or null if no complete record is available
+     * right now, which is the end of the input unless it is being followed.
+     */
+    private RecordSplitter.Records nextRecords() throws IOException {
+      if (exhausted) {
+        return null;
+      }
+      RecordSplitter.Records records = splitter.read(PARALLEL_BATCH_SIZE);
+      if (records.count > 0) {
+        return records;
+      }
+      if (!follow) {
+        exhausted = true;
+        records = splitter.remainder();
+        return records.count > 0 ? records : null;
+      }
+      return null;
     }
-    return g;
   }
 }
@@ -0,0 +1,424 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.MultiPoint;
+import com.esri.core.geometry.Point;
+import com.esri.core.map.Feature;
+import com.esri.core.map.Graphic;
+import com.esri.map.GraphicsLayer;
+
+/**
+ * Keeps a {@link GraphicsLayer} in step with a GeoJSON file that is regenerated from
+ * time to time, changing only the graphics of the features that changed.
+ *
+ * <p>
+ * Features are told apart by a key attribute, for example the "id" member of the
+ * features read with {@link GeoJsonParser#setIdField(String)}. For each key, the last
+ * load remembers the graphic ID and 64-bit hashes of the geometry and of the attributes. On
+ * reload, a feature with a new key is added with {@link GraphicsLayer#addGraphics(Graphic[])},
+ * a changed geometry or changed attributes are applied with
+ * {@link GraphicsLayer#updateGraphic(int, Geometry)} or
+ * {@link GraphicsLayer#updateGraphic(int, Map)}, and a key that is gone has its graphic
+ * removed with {@link GraphicsLayer#removeGraphic(int)}. Unchanged features are left
+ * alone, so selections and the drawing of the layer are not disturbed.
+ *
+ * <p>
+ * Features without the key are keyed by their position among such features, and
+ * features sharing a key by their order of appearance. {@link #watch(Path)} reloads the
+ * file whenever it is modified, on a background thread.
+ */
+public final class GeoJsonReloader {
+
+  /**
+   * Receives the outcome of reloads started by {@link #watch(Path)}, on the event
+   * dispatch thread.
+   */
+  public interface ReloadListener {
+
+    /**
+     * Called once the changes of a reload have been applied to the layer.
+     * @param changes what changed since the previous load.
+     */
+    void reloaded(Changes changes);
+
+    /**
+     * Called when the file could not be read or parsed, in which case the layer is
+     * unchanged, or when the layer rejected a change. Either way the next reload is
+     * compared with the last successful load, so it applies again whatever this one
+     * may have applied.
+     * @param ex the cause of the failure.
+     */
+    void failed(Exception ex);
+  }
+
+  /**
+   * The numbers of features added, updated, removed and unchanged by a load.
+   */
+  public static final class Changes {
+
+    private final int added;
+    private final int updated;
+    private final int removed;
+    private final int unchanged;
+
+    Changes(int added, int updated, int removed, int unchanged) {
+      this.added = added;
+      this.updated = updated;
+      this.removed = removed;
+      this.unchanged = unchanged;
+    }
+
+    public int getAdded() {
+      return added;
+    }
+
+    public int getUpdated() {
+      return updated;
+    }
+
+    public int getRemoved() {
+      return removed;
+    }
+
+    public int getUnchanged() {
+      return unchanged;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d added, %d updated, %d removed, %d unchanged",
+          Integer.valueOf(added), Integer.valueOf(updated), Integer.valueOf(removed), Integer.valueOf(unchanged));
+    }
+  }
+
+  // time a file must stay unmodified before it is reloaded, so a file being written is not read
+  private static final long SETTLE_MILLIS = 200;
+
+  private final GeoJsonParser parser;
+  private final GraphicsLayer layer;
+  private final String keyField;
+
+  // state of each feature of the last load, by key
+  private Map<Object, LoadedFeature> loaded = new HashMap<Object, LoadedFeature>();
+
+  private ReloadListener listener = null;
+  private WatchService watchService = null;
+  private Thread watchThread = null;
+
+  /**
+   * @param parser parser configured with the symbol and spatial reference of the features.
+   * @param layer layer holding the features; its other graphics are left alone.
+   * @param keyField name of the attribute that identifies a feature across loads.
+   */
+  public GeoJsonReloader(GeoJsonParser parser, GraphicsLayer layer, String keyField) {
+    this.parser = parser;
+    this.layer = layer;
+    this.keyField = keyField;
+  }
+
+  /**
+   * @param listener listener notified of the reloads of watched files, or null.
+   * @return this reloader.
+   */
+  public GeoJsonReloader setReloadListener(ReloadListener listener) {
+    this.listener = listener;
+    return this;
+  }
+
+  /**
+   * Parses a file and applies the differences with the previous load to the layer.
+   * The first load adds every feature.
+   *
+   * @param path a file containing a FeatureCollection.
+   * @return what changed.
+   */
+  public synchronized Changes load(Path path) {
+    List<Feature> features = parser.parseFeatures(path.toFile());
+    Map<Object, LoadedFeature> current = new HashMap<Object, LoadedFeature>(features.size() * 2);
+    Map<Object, Integer> occurrences = new HashMap<Object, Integer>();
+    List<Graphic> addedGraphics = new ArrayList<Graphic>();
+    List<LoadedFeature> addedFeatures = new ArrayList<LoadedFeature>();
+    int updated = 0;
+    int unchanged = 0;
+    for (Feature f : features) {
+      Map<String, Object> attributes = f.getAttributes();
+      Object key = keyOf(attributes == null ? null : attributes.get(keyField), occurrences);
+      LoadedFeature next = new LoadedFeature(hash(f.getGeometry()), hash(attributes));
+      LoadedFeature previous = loaded.get(key);
+      if (previous == null) {
+        addedGraphics.add(f instanceof Graphic ? (Graphic) f : new Graphic(f.getGeometry(), f.getSymbol(), attributes));
+        addedFeatures.add(next);
+      } else {
+        next.graphicId = previous.graphicId;
+        boolean geometryChanged = next.geometryHash != previous.geometryHash;
+        boolean attributesChanged = next.attributesHash != previous.attributesHash;
+        if (geometryChanged) {
+          layer.updateGraphic(next.graphicId, f.getGeometry());
+        }
+        if (attributesChanged) {
+          layer.updateGraphic(next.graphicId, attributes);
+        }
+        if (geometryChanged || attributesChanged) {
+          updated++;
+        } else {
+          unchanged++;
+        }
+      }
+      current.put(key, next);
+    }
+    // the keys of the previous load that are not in the file anymore
+    int removed = 0;
+    for (Map.Entry<Object, LoadedFeature> entry : loaded.entrySet()) {
+      if (!current.containsKey(entry.getKey())) {
+        layer.removeGraphic(entry.getValue().graphicId);
+        removed++;
+      }
+    }
+    // added last, so that if the layer fails before, nothing is added twice by the next
+    // reload, which repeats the updates and removals from the unchanged previous load
+    if (!addedGraphics.isEmpty()) {
+      int[] ids = layer.addGraphics(addedGraphics.toArray(new Graphic[addedGraphics.size()]));
+      for (int i = 0; i < ids.length; i++) {
+        addedFeatures.get(i).graphicId = ids[i];
+      }
+    }
+    loaded = current;
+    return new Changes(addedGraphics.size(), updated, removed, unchanged);
+  }
+
+  /**
+   * Loads a file, then reloads it on a background thread whenever it is modified,
+   * until {@link #dispose()} is called. Changes are notified to the listener.
+   *
+   * @param path a file containing a FeatureCollection.
+   */
+  public synchronized void watch(final Path path) {
+    if (watchThread != null) {
+      throw new IllegalStateException("a file is already watched");
+    }
+    final Path file = path.toAbsolutePath();
+    try {
+      watchService = FileSystems.getDefault().newWatchService();
+      file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY);
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+    final WatchService service = watchService;
+    watchThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        reload(file);
+        try {
+          while (true) {
+            WatchKey key = service.take();
+            boolean modified = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+              modified |= file.getFileName().equals(event.context());
+            }
+            key.reset();
+            if (modified) {
+              waitUntilSettled(service);
+              reload(file);
+            }
+          }
+        } catch (InterruptedException ex) {
+          // disposed
+        } catch (ClosedWatchServiceException ex) {
+          // disposed
+        }
+      }
+    }, "GeoJsonReloader");
+    watchThread.setDaemon(true);
+    watchThread.start();
+  }
+
+  /**
+   * Stops watching the file. The layer keeps the features of the last load.
+   */
+  public synchronized void dispose() {
+    if (watchThread != null) {
+      watchThread.interrupt();
+      watchThread = null;
+    }
+    if (watchService != null) {
+      try {
+        watchService.close();
+      } catch (IOException ex) {
+        // nothing left to release
+      }
+      watchService = null;
+    }
+  }
+
+  // ------------------------------------------------------------------------
+  // Private methods
+  // ------------------------------------------------------------------------
+
+  private void reload(Path path) {
+    try {
+      if (Files.exists(path)) {
+        notifyReloaded(load(path));
+      }
+    } catch (Exception ex) {
+      notifyFailed(ex);
+    }
+  }
+
+  /**
+   * Waits for the events of a file being written to stop, so that it is read once complete.
+   */
+  private static void waitUntilSettled(WatchService service) throws InterruptedException {
+    WatchKey key;
+    while ((key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+      key.pollEvents();
+      key.reset();
+    }
+  }
+
+  /**
+   * @return the key of a feature: its key value, numbered if it has been seen before.
+   */
+  private static Object keyOf(Object value, Map<Object, Integer> occurrences) {
+    Integer seen = occurrences.get(value);
+    int occurrence = seen == null ? 0 : seen.intValue();
+    occurrences.put(value, Integer.valueOf(occurrence + 1));
+    return occurrence == 0 && value != null ? value : Arrays.asList(value, Integer.valueOf(occurrence));
+  }
+
+  /**
+   * @return a 64-bit hash of the type, parts and x, y of every vertex of a geometry.
+   */
+  private static long hash(Geometry g) {
+    if (g == null) {
+      return 0;
+    }
+    long h = g.getClass().getName().hashCode();
+    Point p = new Point();
+    if (g instanceof Point) {
+      Point point = (Point) g;
+      h = mix(mix(h, point.getX()), point.getY());
+    } else if (g instanceof MultiPoint) {
+      MultiPoint multiPoint = (MultiPoint) g;
+      for (int i = 0; i < multiPoint.getPointCount(); i++) {
+        multiPoint.getPoint(i, p);
+        h = mix(mix(h, p.getX()), p.getY());
+      }
+    } else if (g instanceof MultiPath) {
+      MultiPath multiPath = (MultiPath) g;
+      for (int path = 0; path < multiPath.getPathCount(); path++) {
+        h = h * 31 + multiPath.getPathEnd(path);
+        for (int i = multiPath.getPathStart(path); i < multiPath.getPathEnd(path); i++) {
+          multiPath.getPoint(i, p);
+          h = mix(mix(h, p.getX()), p.getY());
+        }
+      }
+    }
+    return h;
+  }
+
+  /**
+   * @return a 64-bit hash of the names and values of attributes, whatever their order;
+   * 32-bit hashes of maps collide for ordinary edits, such as "Aa" and "BB".
+   */
+  private static long hash(Map<String, Object> attributes) {
+    if (attributes == null) {
+      return 0;
+    }
+    long h = attributes.size();
+    for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+      // entries are summed so that the order of the map does not matter
+      h += mix(hash(entry.getKey()), hash(entry.getValue()));
+    }
+    return h;
+  }
+
+  private static long hash(Object value) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof String) {
+      String s = (String) value;
+      long h = s.length();
+      for (int i = 0; i < s.length(); i++) {
+        h = mix(h, s.charAt(i));
+      }
+      return h;
+    }
+    if (value instanceof Double || value instanceof Float) {
+      return mix(1, Double.doubleToLongBits(((Number) value).doubleValue()));
+    }
+    if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return mix(2, ((Number) value).longValue());
+    }
+    return mix(value.getClass().getName().hashCode(), value.hashCode());
+  }
+
+  private static long mix(long h, double value) {
+    return mix(h, Double.doubleToLongBits(value));
+  }
+
+  private static long mix(long h, long bits) {
+    h ^= bits;
+    h *= 0x9e3779b97f4a7c15L;
+    return h ^ (h >>> 29);
+  }
+
+  private void notifyReloaded(final Changes changes) {
+    final ReloadListener l = listener;
+    if (l == null) {
+      return;
+    }
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        l.reloaded(changes);
+      }
+    });
+  }
+
+  private void notifyFailed(final Exception ex) {
+    final ReloadListener l = listener;
+    if (l == null) {
+      return;
+    }
+    SwingUtilities.invokeLater(new Runnable() {
+      @Override
+      public void run() {
+        l.failed(ex);
+      }
+    });
+  }
+
+  /**
+   * What the last load knows of a feature.
+   */
+  private static final class LoadedFeature {
+
+    final long geometryHash;
+    final long attributesHash;
+    int graphicId = -1;
+
+    LoadedFeature(long geometryHash, long attributesHash) {
+      this.geometryHash = geometryHash;
+      this.attributesHash = attributesHash;
+    }
+  }
+}
@@ -0,0 +1,561 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.util.MinimalPrettyPrinter;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.MultiPoint;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.core.map.Feature;
+import com.esri.core.map.Graphic;
+import com.esri.map.GraphicsLayer;
+
+/**
+ * A writer that streams {@link Feature} and {@link Geometry} objects to an output stream
+ * in <a href="http://geojson.org">GeoJSON</a> format, the counterpart of {@link GeoJsonParser}.
+ *
+ * <p>
+ * Features are written as they are given, through a token generator, into a
+ * FeatureCollection or, with {@link #setSequence(boolean)}, into a GeoJSON text sequence
+ * (RFC 8142) with one feature per record. Nothing is kept once a feature is written, so
+ * memory use depends on the size of the largest geometry rather than on the number of
+ * features, and a whole layer can be exported without building its text in memory.
+ * Output can be gzip-compressed on the fly, in a form {@link GeoJsonParser} reads back.
+ *
+ * <p>
+ * Geometries are projected to WGS84 if needed and their coordinates can be rounded to
+ * a number of decimals. Polygon rings are wound as RFC 7946 asks, exteriors
+ * counter-clockwise, and a polygon with several exterior rings is written as a
+ * MultiPolygon. Only x and y are written. Symbols are not written.
+ *
+ * <p>
+ * A writer is not thread-safe, and its settings cannot change once it has started writing.
+ * <pre>
+ * try (GeoJsonWriter writer = new GeoJsonWriter(new FileOutputStream(file))
+ *     .setInSpatialReference(map.getSpatialReference())
+ *     .setPrecision(6)) {
+ *   writer.writeLayer(graphicsLayer);
+ * }
+ * </pre>
+ */
+public final class GeoJsonWriter implements Closeable {
+
+  // geometries in GeoJSON are in CRS84 (Esri Wkid = 4326)
+  private final static SpatialReference OUT_SR = SpatialReference.create(4326);
+
+  private final static JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private final static int GZIP_BUFFER_SIZE = 1 << 16;
+
+  // separator written before each record of a GeoJSON text sequence
+  private final static char RECORD_SEPARATOR = '\u001E';
+
+  // largest number of decimals that rounding keeps exact in a long
+  private final static int MAX_PRECISION = 15;
+
+  // scaled coordinates beyond which rounding no longer fits in a long
+  private final static double MAX_SCALED = 1e17;
+
+  private final static long[] POWERS_OF_TEN = new long[MAX_PRECISION + 1];
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i <= MAX_PRECISION; i++) {
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+  }
+
+  // field names defined in the GeoJson spec
+  private final static String FIELD_COORDINATES = "coordinates";
+  private final static String FIELD_FEATURE = "Feature";
+  private final static String FIELD_FEATURES = "features";
+  private final static String FIELD_FEATURE_COLLECTION = "FeatureCollection";
+  private final static String FIELD_GEOMETRY = "geometry";
+  private final static String FIELD_ID = "id";
+  private final static String FIELD_PROPERTIES = "properties";
+  private final static String FIELD_TYPE = "type";
+
+  private final OutputStream out;
+
+  // projects geometries of the input spatial reference back to WGS84
+  private GeometryProjector projector = GeometryProjector.create(OUT_SR, null);
+
+  // number of decimals of the coordinates, or -1 to write them exactly
+  private int precision = -1;
+
+  private boolean gzip = false;
+  private boolean sequence = false;
+
+  // attribute written as the "id" member of features, or null to write none
+  private String idField = null;
+
+  // created by the first write
+  private JsonGenerator generator = null;
+  private boolean closed = false;
+
+  // reused for the coordinates of each geometry and the text of each number
+  private final CoordinateBuffer coordinates = new CoordinateBuffer();
+  private final char[] digits = new char[32];
+
+  /**
+   * @param out stream to write to; it is closed by {@link #close()}.
+   */
+  public GeoJsonWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  // ------------------------------------------------------------------------
+  // Public methods
+  // ------------------------------------------------------------------------
+
+  /**
+   * @param inSR spatial reference of the geometries to write, for example that of the
+   * map; geometries are projected from it to WGS84. Null, the default, writes them as they are.
+   * @return this writer.
+   */
+  public GeoJsonWriter setInSpatialReference(SpatialReference inSR) {
+    checkNotStarted();
+    projector = GeometryProjector.create(OUT_SR, inSR);
+    return this;
+  }
+
+  /**
+   * Rounds coordinates to a number of decimals, which makes the output smaller. Six
+   * decimals of a degree, as RFC 7946 suggests, are about ten centimeters.
+   *
+   * @param precision number of decimals, from 0 to 15, or -1, the default, to write
+   * coordinates with all the digits that tell them apart.
+   * @return this writer.
+   */
+  public GeoJsonWriter setPrecision(int precision) {
+    checkNotStarted();
+    if (precision < -1 || precision > MAX_PRECISION) {
+      throw new IllegalArgumentException("precision must be between -1 and " + MAX_PRECISION + ": " + precision);
+    }
+    this.precision = precision;
+    return this;
+  }
+
+  /**
+   * @param gzip true to compress the output with gzip.
+   * @return this writer.
+   */
+  public GeoJsonWriter setGzip(boolean gzip) {
+    checkNotStarted();
+    this.gzip = gzip;
+    return this;
+  }
+
+  /**
+   * @param sequence true to write a GeoJSON text sequence, each feature in a record of
+   * its own, as read by {@link GeoJsonParser#parseSeqFeatures(java.io.File)}, rather than
+   * a FeatureCollection.
+   * @return this writer.
+   */
+  public GeoJsonWriter setSequence(boolean sequence) {
+    checkNotStarted();
+    this.sequence = sequence;
+    return this;
+  }
+
+  /**
+   * Writes an attribute as the "id" member of features, rather than among their properties,
+   * as {@link GeoJsonParser#setIdField(String)} reads it.
+   *
+   * @param idField name of the attribute, or null to write no "id" member.
+   * @return this writer.
+   */
+  public GeoJsonWriter setIdField(String idField) {
+    checkNotStarted();
+    this.idField = idField;
+    return this;
+  }
+
+  /**
+   * Writes a feature with its geometry and attributes.
+   * @param feature a feature, or a graphic.
+   */
+  public void writeFeature(Feature feature) {
+    try {
+      startRecord();
+      writeFeatureObject(feature.getGeometry(), feature.getAttributes());
+      endRecord();
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Writes a geometry as a feature without properties.
+   * @param geometry a geometry, or null.
+   */
+  public void writeGeometry(Geometry geometry) {
+    try {
+      startRecord();
+      writeFeatureObject(geometry, null);
+      endRecord();
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Writes the features of an iterator, such as the result of a query or the features
+   * streamed by {@link GeoJsonParser#iterateFeatures(java.io.InputStream)}.
+   * @param features features to write.
+   * @return the number of features written.
+   */
+  public int writeFeatures(Iterator<? extends Feature> features) {
+    int count = 0;
+    while (features.hasNext()) {
+      writeFeature(features.next());
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Writes the graphics of a layer, one at a time, in the order of their IDs.
+   * @param layer a graphics layer.
+   * @return the number of graphics written.
+   */
+  public int writeLayer(GraphicsLayer layer) {
+    int[] ids = layer.getGraphicIDs();
+    int count = 0;
+    if (ids != null) {
+      for (int id : ids) {
+        Graphic graphic = layer.getGraphic(id);
+        if (graphic != null) {
+          writeFeature(graphic);
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Writes what has been buffered so far to the output stream.
+   */
+  public void flush() {
+    if (generator == null) {
+      return;
+    }
+    try {
+      generator.flush();
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  /**
+   * Ends the FeatureCollection, finishes the compressed output and closes the output stream.
+   * A writer closed before any feature was written writes an empty FeatureCollection.
+   */
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    try {
+      start();
+      closed = true;
+      if (!sequence) {
+        generator.writeEndArray();
+        generator.writeEndObject();
+      }
+      // closes the gzip stream, if any, which writes its trailer, then the output stream
+      generator.close();
+    } catch (IOException ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  // ------------------------------------------------------------------------
+  // Private methods
+  // ------------------------------------------------------------------------
+
+  private void checkNotStarted() {
+    if (generator != null) {
+      throw new IllegalStateException("settings cannot change once writing has started");
+    }
+  }
+
+  private void start() throws IOException {
+    if (generator != null) {
+      return;
+    }
+    OutputStream target = gzip ? new GZIPOutputStream(out, GZIP_BUFFER_SIZE) : out;
+    generator = JSON_FACTORY.createJsonGenerator(target, JsonEncoding.UTF8);
+    if (sequence) {
+      // records are delimited by their separators, not by the space put between root values
+      generator.setPrettyPrinter(new MinimalPrettyPrinter(""));
+    } else {
+      generator.writeStartObject();
+      generator.writeStringField(FIELD_TYPE, FIELD_FEATURE_COLLECTION);
+      generator.writeArrayFieldStart(FIELD_FEATURES);
+    }
+  }
+
+  private void startRecord() throws IOException {
+    if (closed) {
+      throw new IllegalStateException("the writer is closed");
+    }
+    start();
+    if (sequence) {
+      generator.writeRaw(RECORD_SEPARATOR);
+    }
+  }
+
+  private void endRecord() throws IOException {
+    if (sequence) {
+      generator.writeRaw('\n');
+    }
+  }
+
+  private void writeFeatureObject(Geometry geometry, Map<String, Object> attributes) throws IOException {
+    generator.writeStartObject();
+    generator.writeStringField(FIELD_TYPE, FIELD_FEATURE);
+    Object id = idField == null || attributes == null ? null : attributes.get(idField);
+    if (id != null) {
+      generator.writeFieldName(FIELD_ID);
+      if (id instanceof Number) {
+        writeValue(id);
+      } else {
+        generator.writeString(id.toString());
+      }
+    }
+    generator.writeFieldName(FIELD_GEOMETRY);
+    writeGeometryObject(geometry);
+    generator.writeFieldName(FIELD_PROPERTIES);
+    if (attributes == null) {
+      generator.writeNull();
+    } else {
+      generator.writeStartObject();
+      for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+        if (id != null && idField.equals(attribute.getKey())) {
+          continue;
+        }
+        generator.writeFieldName(attribute.getKey());
+        writeValue(attribute.getValue());
+      }
+      generator.writeEndObject();
+    }
+    generator.writeEndObject();
+  }
+
+  private void writeValue(Object value) throws IOException {
+    if (value == null) {
+      generator.writeNull();
+    } else if (value instanceof String) {
+      generator.writeString((String) value);
+    } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      generator.writeNumber(((Number) value).intValue());
+    } else if (value instanceof Long) {
+      generator.writeNumber(((Long) value).longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      generator.writeNumber(((Number) value).doubleValue());
+    } else if (value instanceof BigDecimal) {
+      generator.writeNumber((BigDecimal) value);
+    } else if (value instanceof BigInteger) {
+      generator.writeNumber((BigInteger) value);
+    } else if (value instanceof Boolean) {
+      generator.writeBoolean(((Boolean) value).booleanValue());
+    } else if (value instanceof Date) {
+      // dates of feature services are milliseconds since the epoch
+      generator.writeNumber(((Date) value).getTime());
+    } else {
+      generator.writeString(value.toString());
+    }
+  }
+
+  /**
+   * Writes a geometry object, or null for a geometry that GeoJSON cannot represent.
+   */
+  private void writeGeometryObject(Geometry g) throws IOException {
+    g = projector.unproject(g);
+    if (g == null || g.isEmpty()) {
+      generator.writeNull();
+      return;
+    }
+    coordinates.reset();
+    String type;
+    if (g instanceof Point) {
+      Point point = (Point) g;
+      coordinates.addPoint(point.getX(), point.getY());
+      type = "Point";
+    } else if (g instanceof MultiPoint) {
+      MultiPoint multiPoint = (MultiPoint) g;
+      Point p = new Point();
+      for (int i = 0; i < multiPoint.getPointCount(); i++) {
+        multiPoint.getPoint(i, p);
+        coordinates.addPoint(p.getX(), p.getY());
+      }
+      type = "MultiPoint";
+    } else if (g instanceof Polygon) {
+      coordinates.read((MultiPath) g);
+      type = "Polygon";
+    } else if (g instanceof MultiPath) {
+      coordinates.read((MultiPath) g);
+      type = coordinates.pathCount == 1 ? "LineString" : "MultiLineString";
+    } else if (g instanceof Envelope) {
+      // an Esri exterior ring, clockwise
+      Envelope envelope = (Envelope) g;
+      coordinates.addPoint(envelope.getXMin(), envelope.getYMin());
+      coordinates.addPoint(envelope.getXMin(), envelope.getYMax());
+      coordinates.addPoint(envelope.getXMax(), envelope.getYMax());
+      coordinates.addPoint(envelope.getXMax(), envelope.getYMin());
+      coordinates.endPath();
+      type = "Polygon";
+    } else {
+      generator.writeNull();
+      return;
+    }
+    projector.unproject(coordinates);
+
+    generator.writeStartObject();
+    if ("Polygon".equals(type)) {
+      writePolygons();
+    } else {
+      generator.writeStringField(FIELD_TYPE, type);
+      generator.writeFieldName(FIELD_COORDINATES);
+      if ("Point".equals(type)) {
+        writePosition(0);
+      } else if ("MultiLineString".equals(type)) {
+        generator.writeStartArray();
+        for (int path = 0; path < coordinates.pathCount; path++) {
+          writePositions(coordinates.pathStart(path), coordinates.pathEnd(path));
+        }
+        generator.writeEndArray();
+      } else {
+        writePositions(0, coordinates.pointCount);
+      }
+    }
+    generator.writeEndObject();
+  }
+
+  /**
+   * Writes the rings of an Esri polygon, where each clockwise ring starts a polygon and
+   * the counter-clockwise rings that follow it are its holes.
+   */
+  private void writePolygons() throws IOException {
+    int exteriors = 0;
+    for (int path = 0; path < coordinates.pathCount; path++) {
+      if (path == 0 || coordinates.isClockwise(path)) {
+        exteriors++;
+      }
+    }
+    generator.writeStringField(FIELD_TYPE, exteriors == 1 ? "Polygon" : "MultiPolygon");
+    generator.writeFieldName(FIELD_COORDINATES);
+    generator.writeStartArray();
+    for (int path = 0; path < coordinates.pathCount; path++) {
+      boolean clockwise = coordinates.isClockwise(path);
+      if (path == 0 || clockwise) {
+        if (path > 0) {
+          generator.writeEndArray();
+        }
+        if (exteriors > 1) {
+          generator.writeStartArray();
+        }
+        // RFC 7946 exteriors wind counter-clockwise
+        writeRing(coordinates.pathStart(path), coordinates.pathEnd(path), clockwise);
+      } else {
+        // and holes clockwise
+        writeRing(coordinates.pathStart(path), coordinates.pathEnd(path), !clockwise);
+      }
+    }
+    if (exteriors > 1) {
+      generator.writeEndArray();
+    }
+    generator.writeEndArray();
+  }
+
+  /**
+   * Writes a ring, closed with a copy of its first position if it is not already.
+   */
+  private void writeRing(int start, int end, boolean reversed) throws IOException {
+    int first = reversed ? end - 1 : start;
+    int last = reversed ? start : end - 1;
+    generator.writeStartArray();
+    if (reversed) {
+      for (int i = end - 1; i >= start; i--) {
+        writePosition(i);
+      }
+    } else {
+      for (int i = start; i < end; i++) {
+        writePosition(i);
+      }
+    }
+    if (coordinates.x[first] != coordinates.x[last] || coordinates.y[first] != coordinates.y[last]) {
+      writePosition(first);
+    }
+    generator.writeEndArray();
+  }
+
+  private void writePositions(int start, int end) throws IOException {
+    generator.writeStartArray();
+    for (int i = start; i < end; i++) {
+      writePosition(i);
+    }
+    generator.writeEndArray();
+  }
+
+  private void writePosition(int i) throws IOException {
+    generator.writeStartArray();
+    writeCoordinate(coordinates.x[i]);
+    writeCoordinate(coordinates.y[i]);
+    generator.writeEndArray();
+  }
+
+  /**
+   * Writes a coordinate rounded to the precision, in plain decimal notation without
+   * trailing zeros, from a reused character buffer rather than through a String.
+   */
+  private void writeCoordinate(double value) throws IOException {
+    double scaled = Math.abs(value) * POWERS_OF_TEN[Math.max(precision, 0)];
+    if (precision < 0 || !(scaled < MAX_SCALED)) {
+      // all digits, or a value too large to round, or not a number
+      generator.writeNumber(value);
+      return;
+    }
+    long rounded = Math.round(scaled);
+    long unit = POWERS_OF_TEN[precision];
+    long integer = rounded / unit;
+    long fraction = rounded % unit;
+    int decimals = precision;
+    while (fraction != 0 && fraction % 10 == 0) {
+      fraction /= 10;
+      decimals--;
+    }
+    int end = digits.length;
+    int i = end;
+    if (fraction != 0) {
+      for (int d = 0; d < decimals; d++) {
+        digits[--i] = (char) ('0' + fraction % 10);
+        fraction /= 10;
+      }
+      digits[--i] = '.';
+    }
+    do {
+      digits[--i] = (char) ('0' + integer % 10);
+      integer /= 10;
+    } while (integer != 0);
+    if (value < 0 && rounded != 0) {
+      digits[--i] = '-';
+    }
+    generator.writeRawValue(digits, i, end - i);
+  }
+}
@@ -0,0 +1,206 @@
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.SpatialReference;
+
+/**
+ * Projects decoded geometries from an input to an output spatial reference.
+ *
+ * <p>
+ * The way to project is resolved once per pair of spatial references and the
+ * resulting projector is cached, so it is shared by every parser and every feature.
+ * Projection from WGS84 to Web Mercator uses the closed-form spherical mercator
+ * equations directly on the coordinate arrays of a {@link CoordinateBuffer}, before
+ * any geometry is built. Any other pair goes through {@link GeometryEngine#project}.
+ *
+ * <p>
+ * Instances are immutable and can be used from several threads at once.
+ */
+final class GeometryProjector {
+
+  private enum Method {
+    // input and output are the same, nothing to do
+    NONE,
+    // closed-form WGS84 to Web Mercator on the raw coordinates
+    WEB_MERCATOR,
+    // projection engine, one geometry at a time
+    ENGINE
+  }
+
+  private static final int WKID_WGS84 = 4326;
+  private static final int[] WKIDS_WEB_MERCATOR = { 102100, 102113, 3857, 900913 };
+
+  // semi-major axis of the WGS84 ellipsoid, used as the sphere radius by Web Mercator
+  private static final double EARTH_RADIUS = 6378137.0;
+
+  // latitude at which Web Mercator makes the world square
+  private static final double MAX_LATITUDE = 85.0511287798066;
+
+  private static final ConcurrentMap<Long, GeometryProjector> cache =
+      new ConcurrentHashMap<Long, GeometryProjector>();
+
+  private final SpatialReference inSR;
+  private final SpatialReference outSR;
+  private final Method method;
+
+  private GeometryProjector(SpatialReference inSR, SpatialReference outSR, Method method) {
+    this.inSR = inSR;
+    this.outSR = outSR;
+    this.method = method;
+  }
+
+  /**
+   * Returns the projector for a pair of spatial references. Projectors of spatial
+   * references identified by a well-known ID are cached.
+   *
+   * @param inSR spatial reference of the decoded coordinates.
+   * @param outSR requested spatial reference, or null to keep the input one.
+   * @return a projector.
+   */
+  static GeometryProjector create(SpatialReference inSR, SpatialReference outSR) {
+    if (outSR == null || outSR.getID() == inSR.getID() && inSR.getID() != 0) {
+      return new GeometryProjector(inSR, inSR, Method.NONE);
+    }
+    if (inSR.getID() == 0 || outSR.getID() == 0) {
+      return new GeometryProjector(inSR, outSR, Method.ENGINE);
+    }
+    Long key = Long.valueOf(((long) inSR.getID() << 32) | (outSR.getID() & 0xffffffffL));
+    GeometryProjector projector = cache.get(key);
+    if (projector == null) {
+      Method method = inSR.getID() == WKID_WGS84 && isWebMercator(outSR) ? Method.WEB_MERCATOR : Method.ENGINE;
+      projector = new GeometryProjector(inSR, outSR, method);
+      GeometryProjector existing = cache.putIfAbsent(key, projector);
+      if (existing != null) {
+        projector = existing;
+      }
+    }
+    return projector;
+  }
+
+  static boolean isWebMercator(SpatialReference sr) {
+    for (int wkid : WKIDS_WEB_MERCATOR) {
+      if (sr.getID() == wkid) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the spatial reference of projected geometries.
+   */
+  SpatialReference getOutSpatialReference() {
+    return outSR;
+  }
+
+  /**
+   * @return true if {@link #project(CoordinateBuffer)} does the projection, so that
+   * geometries built from projected coordinates need no further work.
+   */
+  boolean projectsCoordinates() {
+    return method != Method.ENGINE;
+  }
+
+  /**
+   * Projects coordinates in place, if this projector works on coordinates.
+   * @param coordinates decoded coordinates.
+   */
+  void project(CoordinateBuffer coordinates) {
+    if (method != Method.WEB_MERCATOR) {
+      return;
+    }
+    double[] x = coordinates.x;
+    double[] y = coordinates.y;
+    for (int i = 0; i < coordinates.pointCount; i++) {
+      double lat = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, y[i]));
+      x[i] = EARTH_RADIUS * Math.toRadians(x[i]);
+      y[i] = EARTH_RADIUS * Math.log(Math.tan(Math.PI / 4 + Math.toRadians(lat) / 2));
+    }
+  }
+
+  /**
+   * Projects a geometry, if this projector does not work on coordinates.
+   * @param g a geometry in the input spatial reference, or null.
+   * @return the projected geometry.
+   */
+  Geometry project(Geometry g) {
+    if (method != Method.ENGINE || g == null) {
+      return g;
+    }
+    return GeometryEngine.project(g, inSR, outSR);
+  }
+
+  /**
+   * Projects an envelope from the output back to the input spatial reference, so that
+   * decoded coordinates can be compared with it before they are projected.
+   * @param extent an envelope in the output spatial reference.
+   * @return the envelope in the input spatial reference.
+   */
+  Envelope unproject(Envelope extent) {
+    switch (method) {
+      case WEB_MERCATOR:
+        return new Envelope(
+            Math.toDegrees(extent.getXMin() / EARTH_RADIUS), 
+            Math.toDegrees(Math.atan(Math.sinh(extent.getYMin() / EARTH_RADIUS))), 
+            Math.toDegrees(extent.getXMax() / EARTH_RADIUS), 
+            Math.toDegrees(Math.atan(Math.sinh(extent.getYMax() / EARTH_RADIUS))));
+      case ENGINE:
+        Envelope result = new Envelope();
+        GeometryEngine.project(extent, outSR, inSR).queryEnvelope(result);
+        return result;
+      default:
+        return extent;
+    }
+  }
+
+  /**
+   * Projects coordinates in place from the output back to the input spatial reference,
+   * if this projector works on coordinates.
+   * @param coordinates coordinates in the output spatial reference.
+   */
+  void unproject(CoordinateBuffer coordinates) {
+    if (method != Method.WEB_MERCATOR) {
+      return;
+    }
+    double[] x = coordinates.x;
+    double[] y = coordinates.y;
+    for (int i = 0; i < coordinates.pointCount; i++) {
+      x[i] = Math.toDegrees(x[i] / EARTH_RADIUS);
+      y[i] = Math.toDegrees(Math.atan(Math.sinh(y[i] / EARTH_RADIUS)));
+    }
+  }
+
+  /**
+   * Projects a geometry from the output back to the input spatial reference, if this
+   * projector does not work on coordinates.
+   * @param g a geometry in the output spatial reference, or null.
+   * @return the geometry in the input spatial reference.
+   */
+  Geometry unproject(Geometry g) {
+    if (method != Method.ENGINE || g == null) {
+      return g;
+    }
+    return GeometryEngine.project(g, outSR, inSR);
+  }
+
+  /**
+   * Projects a batch of geometries in place, if this projector does not work on coordinates.
+   * @param geometries geometries in the input spatial reference; null entries are skipped.
+   * @param from index of the first geometry to project.
+   * @param to index past the last geometry to project.
+   */
+  void project(Geometry[] geometries, int from, int to) {
+    if (method != Method.ENGINE) {
+      return;
+    }
+    for (int i = from; i < to; i++) {
+      if (geometries[i] != null) {
+        geometries[i] = GeometryEngine.project(geometries[i], inSR, outSR);
+      }
+    }
+  }
+}
@@ -0,0 +1,257 @@
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A read-only memory mapping of a whole file.
+ *
+ * <p>
+ * Files larger than a single {@link MappedByteBuffer} are mapped as several segments.
+ * Reading through {@link #openStream(long, long)} goes straight from the page cache
+ * to the caller's buffer, without the read buffers of a file stream. The mapping
+ * also allows random access, which {@link #findMembers(String...)} uses to find the
+ * byte range of each member of a FeatureCollection, so that ranges can be parsed
+ * independently of each other.
+ */
+final class MappedFile {
+
+  private static final int SEGMENT_BITS = 30;
+  private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  private final MappedByteBuffer[] segments;
+  private final long size;
+
+  MappedFile(File file) throws IOException {
+    FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    try {
+      size = channel.size();
+      segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+      for (int i = 0; i < segments.length; i++) {
+        long position = i * SEGMENT_SIZE;
+        segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(SEGMENT_SIZE, size - position));
+      }
+    } finally {
+      // the mapping stays valid after the channel is closed
+      channel.close();
+    }
+  }
+
+  long size() {
+    return size;
+  }
+
+  /**
+   * @return a stream over the whole file.
+   */
+  InputStream openStream() {
+    return openStream(0, size);
+  }
+
+  /**
+   * Returns a stream over a range of the file. Each stream has its own position, so
+   * several streams can be read by different threads at the same time.
+   *
+   * @param from offset of the first byte.
+   * @param to offset past the last byte.
+   * @return a stream over the range.
+   */
+  InputStream openStream(long from, long to) {
+    return new MappedInputStream(from, to);
+  }
+
+  /**
+   * Returns a stream over a range of the file, enclosed in the given prefix and suffix.
+   */
+  InputStream openStream(String prefix, long from, long to, String suffix) {
+    return new SequenceInputStream(new SequenceInputStream(
+        new ByteArrayInputStream(prefix.getBytes(ASCII)), openStream(from, to)),
+        new ByteArrayInputStream(suffix.getBytes(ASCII)));
+  }
+
+  /**
+   * Scans the file for the first array whose field name is one of the given names in
+   * the root object, and returns the byte range of each of its object members. Only
+   * string, bracket and brace boundaries are tracked, no value is decoded.
+   *
+   * @param names candidate names of the array, such as "features" or "geometries".
+   * @return the members, or null if there is no such array in the root object.
+   */
+  Members findMembers(String... names) {
+    byte[][] keys = new byte[names.length][];
+    for (int i = 0; i < names.length; i++) {
+      keys[i] = names[i].getBytes(ASCII);
+    }
+    int depth = 0;
+    boolean inString = false;
+    boolean escaped = false;
+    long stringStart = -1;
+    long keyStart = -1;
+    long keyEnd = -1;
+    String arrayName = null;
+    Members members = null;
+    long memberStart = -1;
+    for (int s = 0; s < segments.length; s++) {
+      ByteBuffer segment = segments[s];
+      long base = s * SEGMENT_SIZE;
+      int limit = segment.limit();
+      for (int i = 0; i < limit; i++) {
+        byte b = segment.get(i);
+        if (inString) {
+          if (escaped) {
+            escaped = false;
+          } else if (b == '\\') {
+            escaped = true;
+          } else if (b == '"') {
+            inString = false;
+            if (depth == 1) {
+              keyStart = stringStart;
+              keyEnd = base + i;
+            }
+          }
+          continue;
+        }
+        switch (b) {
+          case '"':
+            inString = true;
+            stringStart = base + i + 1;
+            break;
+          case '{':
+          case '[':
+            if (depth == 1 && b == '[' && members == null) {
+              arrayName = matchKey(keys, names, keyStart, keyEnd);
+              if (arrayName != null) {
+                members = new Members(arrayName);
+              }
+            } else if (depth == 2 && b == '{' && members != null) {
+              memberStart = base + i;
+            }
+            depth++;
+            break;
+          case '}':
+          case ']':
+            depth--;
+            if (members != null) {
+              if (depth == 2 && b == '}' && memberStart >= 0) {
+                members.add(memberStart, base + i + 1);
+                memberStart = -1;
+              } else if (depth == 1) {
+                return members;
+              }
+            }
+            break;
+          default:
+            break;
+        }
+      }
+    }
+    return members;
+  }
+
+  private String matchKey(byte[][] keys, String[] names, long start, long end) {
+    if (start < 0) {
+      return null;
+    }
+    for (int k = 0; k < keys.length; k++) {
+      if (end - start != keys[k].length) {
+        continue;
+      }
+      boolean match = true;
+      for (int i = 0; i < keys[k].length && match; i++) {
+        match = byteAt(start + i) == keys[k][i];
+      }
+      if (match) {
+        return names[k];
+      }
+    }
+    return null;
+  }
+
+  private byte byteAt(long position) {
+    return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & (SEGMENT_SIZE - 1)));
+  }
+
+  /**
+   * Byte ranges of the object members of an array.
+   */
+  static final class Members {
+
+    final String arrayName;
+    long[] starts = new long[1024];
+    long[] ends = new long[1024];
+    int count = 0;
+
+    Members(String arrayName) {
+      this.arrayName = arrayName;
+    }
+
+    void add(long start, long end) {
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, count * 2);
+        ends = Arrays.copyOf(ends, count * 2);
+      }
+      starts[count] = start;
+      ends[count] = end;
+      count++;
+    }
+  }
+
+  private final class MappedInputStream extends InputStream {
+
+    private long position;
+    private final long end;
+
+    MappedInputStream(long from, long to) {
+      this.position = from;
+      this.end = Math.min(to, size);
+    }
+
+    @Override
+    public int read() {
+      if (position >= end) {
+        return -1;
+      }
+      return byteAt(position++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (position >= end) {
+        return -1;
+      }
+      // read from one segment at a time, through a view so the segment's own position is untouched
+      int segment = (int) (position >>> SEGMENT_BITS);
+      int offset = (int) (position & (SEGMENT_SIZE - 1));
+      int count = (int) Math.min(len, Math.min(end - position, segments[segment].limit() - offset));
+      ByteBuffer view = segments[segment].duplicate();
+      view.position(offset);
+      view.get(b, off, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, end - position));
+      position += skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+  }
+}
@@ -0,0 +1,567 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.MultiPoint;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.map.Feature;
+import com.esri.core.map.Graphic;
+import com.esri.core.symbol.Symbol;
+import com.esri.map.GraphicsLayer;
+import com.esri.map.JMap;
+import com.esri.map.MapEvent;
+import com.esri.map.MapEventListener;
+import com.esri.map.MapEventListenerAdapter;
+
+/**
+ * Holds a large number of features outside the Java heap, and shows in a
+ * {@link GraphicsLayer} only those in the extent of the map.
+ *
+ * <p>
+ * Features from a {@link GeoJsonParser}, typically streamed with
+ * {@link GeoJsonParser#streamFeatures(java.nio.file.Path)}, are encoded into direct
+ * {@link ByteBuffer} segments as they are added, and can then be discarded. The heap only
+ * keeps the position and extent of each feature in primitive arrays, and the names of
+ * the attributes, so the garbage collector has almost nothing to trace however many
+ * features are stored. A {@link Graphic} is built from its encoded feature only when it
+ * is requested, and the most recently requested graphics are kept in a
+ * least-recently-used cache, so panning back and forth does not rebuild them.
+ *
+ * <p>
+ * Once the store is attached to a map, each change of the extent makes a background
+ * thread find the features in the new extent, add the graphics that came into view to
+ * the layer and remove those that left it. A view showing most of the features still
+ * builds most of them; zoomed-out views of very large stores are better served by
+ * generalized data.
+ *
+ * <p>
+ * Coordinates are stored with x and y only, like the feature cache. Attribute values
+ * that are not numbers, booleans or strings are stored as their string representation.
+ * Direct memory is returned once the store is garbage collected; its size is bounded by
+ * the -XX:MaxDirectMemorySize option of the virtual machine.
+ */
+public final class OffHeapFeatureStore {
+
+  // default size of a segment, and of the cache of built graphics
+  private static final int SEGMENT_SIZE = 16 << 20;
+  private static final int DEFAULT_CACHE_SIZE = 10000;
+
+  private static final byte TYPE_NONE = 0;
+  private static final byte TYPE_POINT = 1;
+  private static final byte TYPE_MULTI_POINT = 2;
+  private static final byte TYPE_POLYLINE = 3;
+  private static final byte TYPE_POLYGON = 4;
+
+  private static final byte VALUE_NULL = 0;
+  private static final byte VALUE_INT = 1;
+  private static final byte VALUE_DOUBLE = 2;
+  private static final byte VALUE_STRING = 3;
+  private static final byte VALUE_LONG = 4;
+  private static final byte VALUE_BOOLEAN = 5;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private final Symbol symbol;
+
+  // encoded features; a feature never spans two segments
+  private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+  private long bytesUsed = 0;
+
+  // per feature: segment index in the high 32 bits and position in the low 32 bits,
+  // and extent as xmin, ymin, xmax, ymax
+  private long[] positions = new long[1024];
+  private double[] bounds = new double[4 * 1024];
+  private int count = 0;
+
+  // attribute names, which are few and shared by many features
+  private final Map<String, Integer> nameIndex = new HashMap<String, Integer>();
+  private final List<String> names = new ArrayList<String>();
+
+  private final Map<Integer, Graphic> cache;
+
+  // encoding scratch
+  private final CoordinateBuffer coordinates = new CoordinateBuffer();
+  private final Envelope scratch = new Envelope();
+
+  // display; the graphic ID of each feature shown, by feature index
+  private GraphicsLayer layer = null;
+  private JMap map = null;
+  private final Map<Integer, Integer> shown = new HashMap<Integer, Integer>();
+  private ExecutorService executor = null;
+  private final MapEventListener onExtentChanged = new MapEventListenerAdapter() {
+    @Override
+    public void mapExtentChanged(MapEvent event) {
+      show(event.getMap().getExtent());
+    }
+  };
+
+  /**
+   * Creates an empty store whose cache keeps 10000 graphics.
+   *
+   * @param symbol symbol of the graphics built from the features.
+   */
+  public OffHeapFeatureStore(Symbol symbol) {
+    this(symbol, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Creates an empty store.
+   *
+   * @param symbol symbol of the graphics built from the features.
+   * @param cacheSize number of built graphics kept in the cache.
+   */
+  public OffHeapFeatureStore(Symbol symbol, final int cacheSize) {
+    this.symbol = symbol;
+    this.cache = new LinkedHashMap<Integer, Graphic>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Graphic> eldest) {
+        return size() > cacheSize;
+      }
+    };
+  }
+
+  /**
+   * Encodes a feature into the store. The feature itself is not kept.
+   *
+   * @param feature a feature, whose geometry may be null.
+   * @return the index of the feature in the store.
+   */
+  public synchronized int add(Feature feature) {
+    byte type = readGeometry(feature.getGeometry());
+    Map<String, Object> attributes = feature.getAttributes();
+    int attributeCount = attributes == null ? 0 : attributes.size();
+
+    // strings are encoded first, since their length is part of the size of the record
+    byte[][] strings = new byte[attributeCount][];
+    int size = 1 + 4 + 4 * coordinates.pathCount + 16 * coordinates.pointCount + 4;
+    if (attributes != null) {
+      int a = 0;
+      for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+        Object value = entry.getValue();
+        size += 4 + 1;
+        if (value instanceof Integer) {
+          size += 4;
+        } else if (value instanceof Double || value instanceof Long) {
+          size += 8;
+        } else if (value instanceof Boolean) {
+          size += 1;
+        } else if (value != null) {
+          strings[a] = value.toString().getBytes(UTF8);
+          size += 4 + strings[a].length;
+        }
+        a++;
+      }
+    }
+
+    ByteBuffer segment = segmentFor(size);
+    int position = segment.position();
+    segment.put(type);
+    segment.putInt(coordinates.pathCount);
+    for (int path = 0; path < coordinates.pathCount; path++) {
+      segment.putInt(coordinates.pathEnd(path) - coordinates.pathStart(path));
+    }
+    for (int i = 0; i < coordinates.pointCount; i++) {
+      segment.putDouble(coordinates.x[i]);
+      segment.putDouble(coordinates.y[i]);
+    }
+    segment.putInt(attributeCount);
+    if (attributes != null) {
+      int a = 0;
+      for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+        Object value = entry.getValue();
+        segment.putInt(indexOf(entry.getKey()));
+        if (value instanceof Integer) {
+          segment.put(VALUE_INT).putInt(((Integer) value).intValue());
+        } else if (value instanceof Double) {
+          segment.put(VALUE_DOUBLE).putDouble(((Double) value).doubleValue());
+        } else if (value instanceof Long) {
+          segment.put(VALUE_LONG).putLong(((Long) value).longValue());
+        } else if (value instanceof Boolean) {
+          segment.put(VALUE_BOOLEAN).put((byte) (((Boolean) value).booleanValue() ? 1 : 0));
+        } else if (value != null) {
+          segment.put(VALUE_STRING).putInt(strings[a].length).put(strings[a]);
+        } else {
+          segment.put(VALUE_NULL);
+        }
+        a++;
+      }
+    }
+    bytesUsed += size;
+
+    if (count == positions.length) {
+      positions = Arrays.copyOf(positions, count * 2);
+      bounds = Arrays.copyOf(bounds, 4 * count * 2);
+    }
+    positions[count] = ((long) (segments.size() - 1) << 32) | position;
+    Geometry g = feature.getGeometry();
+    if (type != TYPE_NONE) {
+      g.queryEnvelope(scratch);
+      bounds[4 * count] = scratch.getXMin();
+      bounds[4 * count + 1] = scratch.getYMin();
+      bounds[4 * count + 2] = scratch.getXMax();
+      bounds[4 * count + 3] = scratch.getYMax();
+    } else {
+      // an empty extent, which no query intersects, also for geometries that are not
+      // encoded, such as lines, so that no graphic without geometry is shown
+      bounds[4 * count] = Double.NaN;
+    }
+    return count++;
+  }
+
+  /**
+   * Encodes features as they are read, for example from
+   * {@link GeoJsonParser#iterateFeatures(java.io.InputStream)}.
+   *
+   * @param features features to add.
+   * @return the number of features added.
+   */
+  public int addAll(Iterator<Feature> features) {
+    int added = 0;
+    while (features.hasNext()) {
+      add(features.next());
+      added++;
+    }
+    return added;
+  }
+
+  /**
+   * @return the number of features in the store.
+   */
+  public synchronized int size() {
+    return count;
+  }
+
+  /**
+   * @return the number of bytes of direct memory used by the encoded features.
+   */
+  public synchronized long getBytesUsed() {
+    return bytesUsed;
+  }
+
+  /**
+   * Finds the features whose extent intersects an extent, by scanning the extents of
+   * all the features, which are held in one array.
+   *
+   * @param extent an extent in the spatial reference of the features.
+   * @return the indexes of the features, in increasing order.
+   */
+  public synchronized int[] query(Envelope extent) {
+    double xmin = extent.getXMin();
+    double ymin = extent.getYMin();
+    double xmax = extent.getXMax();
+    double ymax = extent.getYMax();
+    int[] found = new int[64];
+    int foundCount = 0;
+    for (int i = 0; i < count; i++) {
+      int b = 4 * i;
+      // comparisons with NaN are false, so features without a geometry are never found
+      if (bounds[b] <= xmax && bounds[b + 2] >= xmin && bounds[b + 1] <= ymax && bounds[b + 3] >= ymin) {
+        if (foundCount == found.length) {
+          found = Arrays.copyOf(found, foundCount * 2);
+        }
+        found[foundCount++] = i;
+      }
+    }
+    return Arrays.copyOf(found, foundCount);
+  }
+
+  /**
+   * Returns the graphic of a feature, from the cache or built from its encoded form.
+   *
+   * @param index index of the feature, as returned by {@link #add(Feature)}.
+   * @return the graphic.
+   */
+  public synchronized Graphic getGraphic(int index) {
+    if (index < 0 || index >= count) {
+      throw new IndexOutOfBoundsException("no such feature: " + index);
+    }
+    Integer key = Integer.valueOf(index);
+    Graphic graphic = cache.get(key);
+    if (graphic == null) {
+      graphic = decode(index);
+      cache.put(key, graphic);
+    }
+    return graphic;
+  }
+
+  /**
+   * Starts showing the features in the extent of the map in a layer, beginning with
+   * the current extent.
+   *
+   * @param layer layer to which the graphics are added; other graphics of the layer
+   * are left alone.
+   * @param map the map showing the layer.
+   */
+  public synchronized void attach(GraphicsLayer layer, JMap map) {
+    detach();
+    if (executor == null) {
+      executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "OffHeapFeatureStore");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    this.layer = layer;
+    this.map = map;
+    map.addMapEventListener(onExtentChanged);
+    show(map.getExtent());
+  }
+
+  /**
+   * Stops following the extent of the map and removes, in the background, the graphics
+   * shown in the layer.
+   */
+  public synchronized void detach() {
+    if (map != null) {
+      map.removeMapEventListener(onExtentChanged);
+      map = null;
+    }
+    if (layer != null) {
+      final GraphicsLayer detachedLayer = layer;
+      layer = null;
+      // runs after any update of the layer already queued, so it sees all their graphics
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          int[] ids;
+          synchronized (OffHeapFeatureStore.this) {
+            ids = toArray(shown.values());
+            shown.clear();
+          }
+          detachedLayer.removeGraphics(ids);
+        }
+      });
+    }
+  }
+
+  /**
+   * Detaches the store and stops its background thread.
+   */
+  public synchronized void dispose() {
+    detach();
+    if (executor != null) {
+      // the removal queued by detach still runs; a later attach starts a new thread
+      executor.shutdown();
+      executor = null;
+    }
+    cache.clear();
+  }
+
+  // ------------------------------------------------------------------------
+  // Private methods
+  // ------------------------------------------------------------------------
+
+  /**
+   * Reads the positions of a geometry into the coordinate buffer.
+   * @return the type of the geometry.
+   */
+  private byte readGeometry(Geometry g) {
+    coordinates.reset();
+    if (g == null || g.isEmpty()) {
+      return TYPE_NONE;
+    }
+    if (g instanceof Point) {
+      Point p = (Point) g;
+      coordinates.addPoint(p.getX(), p.getY());
+      coordinates.endPath();
+      return TYPE_POINT;
+    }
+    if (g instanceof MultiPoint) {
+      MultiPoint multiPoint = (MultiPoint) g;
+      Point p = new Point();
+      for (int i = 0; i < multiPoint.getPointCount(); i++) {
+        multiPoint.getPoint(i, p);
+        coordinates.addPoint(p.getX(), p.getY());
+      }
+      coordinates.endPath();
+      return TYPE_MULTI_POINT;
+    }
+    if (g instanceof MultiPath) {
+      coordinates.read((MultiPath) g);
+      return g instanceof Polygon ? TYPE_POLYGON : TYPE_POLYLINE;
+    }
+    if (g instanceof Envelope) {
+      // a polygon with one clockwise ring, as Esri polygons wind their exteriors
+      Envelope envelope = (Envelope) g;
+      coordinates.addPoint(envelope.getXMin(), envelope.getYMin());
+      coordinates.addPoint(envelope.getXMin(), envelope.getYMax());
+      coordinates.addPoint(envelope.getXMax(), envelope.getYMax());
+      coordinates.addPoint(envelope.getXMax(), envelope.getYMin());
+      coordinates.endPath();
+      return TYPE_POLYGON;
+    }
+    return TYPE_NONE;
+  }
+
+  /**
+   * @return the segment into which a record of the given size is written, at its position.
+   */
+  private ByteBuffer segmentFor(int size) {
+    ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    if (segment == null || segment.remaining() < size) {
+      segment = ByteBuffer.allocateDirect(Math.max(SEGMENT_SIZE, size)).order(ByteOrder.nativeOrder());
+      segments.add(segment);
+    }
+    return segment;
+  }
+
+  private int indexOf(String name) {
+    Integer index = nameIndex.get(name);
+    if (index == null) {
+      index = Integer.valueOf(names.size());
+      nameIndex.put(name, index);
+      names.add(name);
+    }
+    return index.intValue();
+  }
+
+  private Graphic decode(int index) {
+    ByteBuffer segment = segments.get((int) (positions[index] >>> 32));
+    int at = (int) positions[index];
+    byte type = segment.get(at);
+    int pathCount = segment.getInt(at + 1);
+    at += 5;
+    int pointsAt = at + 4 * pathCount;
+    CoordinateBuffer decoded = new CoordinateBuffer();
+    for (int path = 0; path < pathCount; path++) {
+      int points = segment.getInt(at + 4 * path);
+      decoded.ensurePointCapacity(decoded.pointCount + points);
+      for (int i = 0; i < points; i++, pointsAt += 16) {
+        decoded.addPoint(segment.getDouble(pointsAt), segment.getDouble(pointsAt + 8));
+      }
+      decoded.endPath();
+    }
+    at = pointsAt;
+
+    int attributeCount = segment.getInt(at);
+    at += 4;
+    Map<String, Object> attributes = new HashMap<String, Object>();
+    for (int a = 0; a < attributeCount; a++) {
+      String name = names.get(segment.getInt(at));
+      byte valueType = segment.get(at + 4);
+      at += 5;
+      Object value = null;
+      switch (valueType) {
+        case VALUE_INT:
+          value = Integer.valueOf(segment.getInt(at));
+          at += 4;
+          break;
+        case VALUE_DOUBLE:
+          value = Double.valueOf(segment.getDouble(at));
+          at += 8;
+          break;
+        case VALUE_LONG:
+          value = Long.valueOf(segment.getLong(at));
+          at += 8;
+          break;
+        case VALUE_BOOLEAN:
+          value = Boolean.valueOf(segment.get(at) != 0);
+          at += 1;
+          break;
+        case VALUE_STRING:
+          byte[] bytes = new byte[segment.getInt(at)];
+          ByteBuffer view = segment.duplicate();
+          view.position(at + 4);
+          view.get(bytes);
+          value = new String(bytes, UTF8);
+          at += 4 + bytes.length;
+          break;
+        default:
+          break;
+      }
+      attributes.put(name, value);
+    }
+    return new Graphic(buildGeometry(type, decoded), symbol, attributes);
+  }
+
+  private static Geometry buildGeometry(byte type, CoordinateBuffer coordinates) {
+    switch (type) {
+      case TYPE_POINT:
+        return coordinates.toPoint();
+      case TYPE_MULTI_POINT:
+        return coordinates.toMultiPoint();
+      case TYPE_POLYLINE:
+        return coordinates.toPolyline();
+      case TYPE_POLYGON:
+        return coordinates.toPolygon();
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Requests the features of an extent to be shown; the background thread updates the
+   * layer, unless the store is detached in the meantime.
+   */
+  private void show(final Envelope extent) {
+    if (extent == null || executor == null) {
+      return;
+    }
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        int[] visible = query(extent);
+        List<Integer> added = new ArrayList<Integer>();
+        List<Graphic> graphics = new ArrayList<Graphic>();
+        GraphicsLayer target;
+        int[] removed;
+        synchronized (OffHeapFeatureStore.this) {
+          target = layer;
+          if (target == null) {
+            return;
+          }
+          Map<Integer, Integer> left = new HashMap<Integer, Integer>(shown);
+          for (int index : visible) {
+            Integer key = Integer.valueOf(index);
+            if (left.remove(key) == null) {
+              added.add(key);
+              graphics.add(getGraphic(index));
+            }
+          }
+          removed = toArray(left.values());
+          shown.keySet().removeAll(left.keySet());
+        }
+        if (removed.length > 0) {
+          target.removeGraphics(removed);
+        }
+        if (!graphics.isEmpty()) {
+          int[] ids = target.addGraphics(graphics.toArray(new Graphic[graphics.size()]));
+          synchronized (OffHeapFeatureStore.this) {
+            for (int i = 0; i < ids.length; i++) {
+              shown.put(added.get(i), Integer.valueOf(ids[i]));
+            }
+          }
+        }
+      }
+    });
+  }
+
+  private static int[] toArray(Collection<Integer> values) {
+    int[] array = new int[values.size()];
+    int i = 0;
+    for (Integer value : values) {
+      array[i++] = value.intValue();
+    }
+    return array;
+  }
+}
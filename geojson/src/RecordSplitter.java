@@ -0,0 +1,171 @@
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits a <a href="https://tools.ietf.org/html/rfc8142">GeoJSON text sequence</a> into
+ * records, one GeoJSON text per record.
+ *
+ * <p>
+ * Records are separated by record separators (0x1E) or line feeds, so both RFC 8142
+ * sequences and newline-delimited files are read; blank records are dropped. Records
+ * are only located, not parsed, which leaves parsing to whichever thread decodes them.
+ * Only the unconsumed part of the input is buffered, so memory use depends on the
+ * number of records requested at a time rather than on the size of the input.
+ *
+ * <p>
+ * A read that reaches the end of the input keeps the trailing unterminated record in
+ * the buffer, since the text may still be being written. Reading again after the end
+ * picks up whatever has been appended to the input since then.
+ */
+final class RecordSplitter {
+
+  private static final byte RECORD_SEPARATOR = 0x1E;
+  private static final byte LINE_FEED = '\n';
+
+  private final InputStream in;
+  private byte[] buffer = new byte[1 << 16];
+
+  // unconsumed data in the buffer, and the position up to which it has been scanned
+  private int start = 0;
+  private int end = 0;
+  private int scanned = 0;
+
+  // whether the last read from the input reached its end
+  private boolean atEnd = false;
+
+  RecordSplitter(InputStream in) {
+    this.in = in;
+  }
+
+  /**
+   * Returns the next complete records, reading from the input until enough records
+   * are found or the end of the input is reached.
+   *
+   * @param maxRecords maximum number of records to return.
+   * @return the records found, possibly none.
+   * @throws IOException
+   */
+  Records read(int maxRecords) throws IOException {
+    Records records = new Records();
+    atEnd = false;
+    while (records.count < maxRecords) {
+      int separator = findSeparator();
+      if (separator >= 0) {
+        records.add(buffer, start, separator);
+        start = separator + 1;
+        scanned = start;
+      } else if (!fill()) {
+        atEnd = true;
+        break;
+      }
+    }
+    return records;
+  }
+
+  /**
+   * @return true if the last call to {@link #read(int)} stopped at the end of the input.
+   */
+  boolean atEnd() {
+    return atEnd;
+  }
+
+  /**
+   * Consumes the trailing record that has no terminator, once the input is known to
+   * be complete.
+   *
+   * @return the trailing record, possibly empty.
+   */
+  Records remainder() {
+    Records records = new Records();
+    records.add(buffer, start, end);
+    start = end;
+    scanned = end;
+    return records;
+  }
+
+  void close() {
+    try {
+      in.close();
+    } catch (IOException ex) {
+      // nothing more can be read anyway
+    }
+  }
+
+  private int findSeparator() {
+    for (int i = scanned; i < end; i++) {
+      byte b = buffer[i];
+      if (b == LINE_FEED || b == RECORD_SEPARATOR) {
+        return i;
+      }
+    }
+    scanned = end;
+    return -1;
+  }
+
+  /**
+   * Reads more of the input into the buffer, compacting or growing it first.
+   * @return false if the end of the input has been reached.
+   */
+  private boolean fill() throws IOException {
+    if (start > 0) {
+      System.arraycopy(buffer, start, buffer, 0, end - start);
+      end -= start;
+      scanned -= start;
+      start = 0;
+    }
+    if (end == buffer.length) {
+      buffer = Arrays.copyOf(buffer, buffer.length * 2);
+    }
+    int count = in.read(buffer, end, buffer.length - end);
+    if (count < 0) {
+      return false;
+    }
+    end += count;
+    return true;
+  }
+
+  private static boolean isBlank(byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == LINE_FEED || b == RECORD_SEPARATOR;
+  }
+
+  /**
+   * Records copied out of the input, each followed by a line feed so that they can
+   * also be parsed together as a sequence of root-level values.
+   */
+  static final class Records {
+
+    byte[] data = new byte[1024];
+    int length = 0;
+    int[] starts = new int[16];
+    int[] ends = new int[16];
+    int count = 0;
+
+    void add(byte[] source, int from, int to) {
+      while (from < to && isBlank(source[from])) {
+        from++;
+      }
+      while (to > from && isBlank(source[to - 1])) {
+        to--;
+      }
+      if (from == to) {
+        return;
+      }
+      int size = to - from;
+      if (length + size + 1 > data.length) {
+        data = Arrays.copyOf(data, Math.max(length + size + 1, data.length * 2));
+      }
+      if (count == starts.length) {
+        starts = Arrays.copyOf(starts, count * 2);
+        ends = Arrays.copyOf(ends, count * 2);
+      }
+      System.arraycopy(source, from, data, length, size);
+      starts[count] = length;
+      ends[count] = length + size;
+      count++;
+      length += size;
+      data[length++] = LINE_FEED;
+    }
+  }
+}
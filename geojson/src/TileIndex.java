@@ -0,0 +1,244 @@
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.core.map.Feature;
+import com.esri.core.map.Graphic;
+
+/**
+ * An in-memory index that slices features into the z/x/y tiles of the Web Mercator
+ * tiling scheme, in the manner of <a href="https://github.com/mapbox/geojson-vt">geojson-vt</a>.
+ *
+ * <p>
+ * When the index is created, the importance of each vertex of each line and polygon is
+ * computed once with the Douglas-Peucker algorithm. A tile is then made on demand: the
+ * features whose extent intersects the tile keep only the vertices that are important
+ * enough at the zoom level of the tile, half a pixel of a 256-pixel tile, and are
+ * clipped to the tile. Recently used tiles are kept in a least-recently-used cache.
+ *
+ * <p>
+ * Since polygons are clipped at tile boundaries, their outlines include the tile
+ * boundaries; draw tiles with a fill symbol only, or draw outlines from a polyline
+ * version of the features. The index can be used from several threads at once.
+ */
+public final class TileIndex {
+
+  // half the width of the Web Mercator world, in meters
+  private static final double HALF_WORLD = 20037508.342789244;
+
+  // size of a tile in pixels, and largest deviation of a simplified geometry in pixels
+  private static final int TILE_PIXELS = 256;
+  private static final double TOLERANCE_PIXELS = 0.5;
+
+  private static final int MAX_ZOOM = 24;
+
+  private final SpatialReference sr;
+  private final List<IndexedFeature> features = new ArrayList<IndexedFeature>();
+  private final Map<Long, List<Graphic>> cache;
+
+  /**
+   * Indexes features, which is the costly step; tiles are only made when requested.
+   *
+   * @param features features whose geometries are in Web Mercator.
+   * @param sr the Web Mercator spatial reference of the features.
+   * @param cacheSize number of tiles kept in the cache.
+   */
+  public TileIndex(List<Feature> features, SpatialReference sr, final int cacheSize) {
+    if (!GeometryProjector.isWebMercator(sr)) {
+      throw new IllegalArgumentException("features must be in Web Mercator: " + sr.getID());
+    }
+    this.sr = sr;
+    this.cache = new LinkedHashMap<Long, List<Graphic>>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, List<Graphic>> eldest) {
+        return size() > cacheSize;
+      }
+    };
+    CoordinateBuffer coordinates = new CoordinateBuffer();
+    for (Feature f : features) {
+      if (f.getGeometry() != null && !f.getGeometry().isEmpty()) {
+        this.features.add(new IndexedFeature(f, coordinates));
+      }
+    }
+  }
+
+  /**
+   * @param resolution a map resolution, in meters per pixel.
+   * @return the zoom level whose tiles are closest to that resolution.
+   */
+  public static int getZoom(double resolution) {
+    double zoom = Math.log(2 * HALF_WORLD / (TILE_PIXELS * resolution)) / Math.log(2);
+    return (int) Math.max(0, Math.min(MAX_ZOOM, Math.round(zoom)));
+  }
+
+  /**
+   * @return the extent of a tile, tile 0/0/0 covering the whole world and y growing southwards.
+   */
+  public static Envelope getTileExtent(int z, int x, int y) {
+    double size = 2 * HALF_WORLD / (1 << z);
+    return new Envelope(-HALF_WORLD + x * size, HALF_WORLD - (y + 1) * size,
+        -HALF_WORLD + (x + 1) * size, HALF_WORLD - y * size);
+  }
+
+  /**
+   * Returns the features of a tile, simplified for its zoom level and clipped to it.
+   *
+   * @param z zoom level, from 0 to 24.
+   * @param x column of the tile, from 0 at the west.
+   * @param y row of the tile, from 0 at the north.
+   * @return the features of the tile, possibly none.
+   */
+  public List<Graphic> getTile(int z, int x, int y) {
+    if (z < 0 || z > MAX_ZOOM || x < 0 || y < 0 || x >= (1 << z) || y >= (1 << z)) {
+      throw new IllegalArgumentException("no such tile: " + z + "/" + x + "/" + y);
+    }
+    Long key = Long.valueOf(((long) z << 58) | ((long) x << 29) | y);
+    synchronized (cache) {
+      List<Graphic> tile = cache.get(key);
+      if (tile != null) {
+        return tile;
+      }
+    }
+    // tiles are made outside the lock, so two threads may make the same tile at once
+    List<Graphic> tile = Collections.unmodifiableList(makeTile(z, x, y));
+    synchronized (cache) {
+      cache.put(key, tile);
+    }
+    return tile;
+  }
+
+  /**
+   * Returns the features of all the tiles of a zoom level that intersect an extent.
+   * A feature that spans several tiles is returned once per tile.
+   *
+   * @param extent an extent in Web Mercator, such as the extent of the map.
+   * @param z zoom level, for example {@link #getZoom(double)} of the map resolution.
+   * @return the features of the tiles.
+   */
+  public List<Graphic> getFeatures(Envelope extent, int z) {
+    int count = 1 << z;
+    double size = 2 * HALF_WORLD / count;
+    int xmin = clamp((int) Math.floor((extent.getXMin() + HALF_WORLD) / size), count);
+    int xmax = clamp((int) Math.floor((extent.getXMax() + HALF_WORLD) / size), count);
+    int ymin = clamp((int) Math.floor((HALF_WORLD - extent.getYMax()) / size), count);
+    int ymax = clamp((int) Math.floor((HALF_WORLD - extent.getYMin()) / size), count);
+    List<Graphic> graphics = new ArrayList<Graphic>();
+    for (int y = ymin; y <= ymax; y++) {
+      for (int x = xmin; x <= xmax; x++) {
+        graphics.addAll(getTile(z, x, y));
+      }
+    }
+    return graphics;
+  }
+
+  // ------------------------------------------------------------------------
+  // Private methods
+  // ------------------------------------------------------------------------
+
+  private static int clamp(int tile, int count) {
+    return Math.max(0, Math.min(count - 1, tile));
+  }
+
+  private List<Graphic> makeTile(int z, int x, int y) {
+    Envelope extent = getTileExtent(z, x, y);
+    double tolerance = extent.getWidth() / TILE_PIXELS * TOLERANCE_PIXELS;
+    double tolerance2 = tolerance * tolerance;
+    List<Graphic> graphics = new ArrayList<Graphic>();
+    CoordinateBuffer coordinates = new CoordinateBuffer();
+    for (IndexedFeature f : features) {
+      if (f.xmin > extent.getXMax() || f.xmax < extent.getXMin()
+          || f.ymin > extent.getYMax() || f.ymax < extent.getYMin()) {
+        continue;
+      }
+      Geometry g = f.simplify(tolerance2, coordinates);
+      boolean within = f.xmin >= extent.getXMin() && f.xmax <= extent.getXMax()
+          && f.ymin >= extent.getYMin() && f.ymax <= extent.getYMax();
+      if (!within) {
+        g = GeometryEngine.clip(g, extent, sr);
+      }
+      if (g != null && !g.isEmpty()) {
+        Feature source = f.feature;
+        graphics.add(new Graphic(g, source.getSymbol(), source.getAttributes()));
+      }
+    }
+    return graphics;
+  }
+
+  /**
+   * A feature with its extent and, for lines and polygons, its vertices and their importance.
+   */
+  private static final class IndexedFeature {
+
+    final Feature feature;
+    final double xmin;
+    final double ymin;
+    final double xmax;
+    final double ymax;
+
+    // null for points and multipoints
+    final double[] x;
+    final double[] y;
+    final int[] pathEnds;
+    final double[] importance;
+    final boolean polygon;
+
+    IndexedFeature(Feature feature, CoordinateBuffer coordinates) {
+      this.feature = feature;
+      Geometry g = feature.getGeometry();
+      Envelope extent = new Envelope();
+      g.queryEnvelope(extent);
+      xmin = extent.getXMin();
+      ymin = extent.getYMin();
+      xmax = extent.getXMax();
+      ymax = extent.getYMax();
+      if (g instanceof MultiPath) {
+        polygon = g instanceof Polygon;
+        coordinates.read((MultiPath) g);
+        importance = coordinates.importance(polygon);
+        x = Arrays.copyOf(coordinates.x, coordinates.pointCount);
+        y = Arrays.copyOf(coordinates.y, coordinates.pointCount);
+        pathEnds = Arrays.copyOf(coordinates.pathEnds, coordinates.pathCount);
+      } else {
+        polygon = false;
+        importance = null;
+        x = null;
+        y = null;
+        pathEnds = null;
+      }
+    }
+
+    /**
+     * @return the geometry with only the vertices whose importance is at least the
+     * squared tolerance, or the original geometry if it has no paths.
+     */
+    Geometry simplify(double tolerance2, CoordinateBuffer coordinates) {
+      if (x == null) {
+        return feature.getGeometry();
+      }
+      coordinates.reset();
+      int start = 0;
+      for (int path = 0; path < pathEnds.length; path++) {
+        for (int i = start; i < pathEnds[path]; i++) {
+          if (importance[i] >= tolerance2) {
+            coordinates.addPoint(x[i], y[i]);
+          }
+        }
+        coordinates.endPath();
+        start = pathEnds[path];
+      }
+      return polygon ? coordinates.toPolygon() : coordinates.toPolyline();
+    }
+  }
+}
@@ -0,0 +1,487 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonParser.NumberType;
+import org.codehaus.jackson.JsonToken;
+
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.core.map.Feature;
+import com.esri.core.map.Graphic;
+import com.esri.core.symbol.Symbol;
+
+/**
+ * A parser that reads data in <a href="https://github.com/topojson/topojson-specification">TopoJSON</a>
+ * format, and returns a collection of {@link Feature}, like {@link GeoJsonParser#parseFeatures(File)}.
+ *
+ * <p>
+ * A TopoJSON topology stores each line shared by several geometries, such as the border
+ * between two countries, once as an arc, and geometries refer to arcs by index. Arcs are
+ * usually quantized to integers and delta-encoded, which makes files much smaller than
+ * the equivalent GeoJSON. The parser decodes every arc once into arrays of coordinates,
+ * then builds each line and ring by concatenating the arcs it refers to, reversed when
+ * the index is negative.
+ *
+ * <p>
+ * Every geometry of every object of the topology becomes a feature, with its "properties"
+ * as attributes; geometry collections are flattened. Coordinates are assumed to be in CRS84.
+ */
+public final class TopoJsonParser {
+
+  // symbology to be used for all the features
+  private Symbol symbol = null;
+
+  // geometries in TopoJSON are assumed to be in CRS84 (Esri Wkid = 4326)
+  private final SpatialReference inSR = SpatialReference.create(4326);
+
+  private GeometryProjector projector = GeometryProjector.create(inSR, null);
+
+  // factories are thread-safe, so one factory serves every parse of every instance
+  private final static JsonFactory JSON_FACTORY = new JsonFactory();
+
+  // name of the only object to read, or null to read all of them
+  private String objectName = null;
+
+  // field names defined in the TopoJSON spec
+  private final static String FIELD_ARCS = "arcs";
+  private final static String FIELD_COORDINATES = "coordinates";
+  private final static String FIELD_GEOMETRIES = "geometries";
+  private final static String FIELD_OBJECTS = "objects";
+  private final static String FIELD_PROPERTIES = "properties";
+  private final static String FIELD_SCALE = "scale";
+  private final static String FIELD_TRANSFORM = "transform";
+  private final static String FIELD_TRANSLATE = "translate";
+  private final static String FIELD_TYPE = "type";
+
+  private final static String TYPE_POINT = "Point";
+  private final static String TYPE_MULTI_POINT = "MultiPoint";
+  private final static String TYPE_LINE_STRING = "LineString";
+  private final static String TYPE_MULTI_LINE_STRING = "MultiLineString";
+  private final static String TYPE_POLYGON = "Polygon";
+  private final static String TYPE_MULTI_POLYGON = "MultiPolygon";
+
+  public TopoJsonParser setSymbol(Symbol symbol) {
+    this.symbol = symbol;
+    return this;
+  }
+
+  public TopoJsonParser setOutSpatialReference(SpatialReference outSR) {
+    this.projector = GeometryProjector.create(inSR, outSR);
+    return this;
+  }
+
+  /**
+   * @param objectName name of the only object of the topology to read, such as
+   * "countries", or null to read all objects.
+   * @return this parser.
+   */
+  public TopoJsonParser setObjectName(String objectName) {
+    this.objectName = objectName;
+    return this;
+  }
+
+  public List<Feature> parseFeatures(File file) {
+    try {
+      return parseFeatures(JSON_FACTORY.createJsonParser(CompressedInput.open(file)));
+    } catch (Exception ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  public List<Feature> parseFeatures(String str) {
+    try {
+      return parseFeatures(JSON_FACTORY.createJsonParser(str));
+    } catch (Exception ex) {
+      throw new RuntimeException(ex);
+    }
+  }
+
+  // ------------------------------------------------------------------------
+  // Private methods
+  // ------------------------------------------------------------------------
+
+  /**
+   * Reads the whole topology, then builds the features. The arcs can come before or
+   * after the objects, so the objects are first read as lists of arc indexes.
+   */
+  private List<Feature> parseFeatures(JsonParser parser) throws IOException {
+    try {
+      Topology topology = new Topology();
+      List<GeometryObject> objects = new ArrayList<GeometryObject>();
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return new LinkedList<Feature>();
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (FIELD_ARCS.equals(name) && token == JsonToken.START_ARRAY) {
+          topology.readArcs(parser);
+        } else if (FIELD_TRANSFORM.equals(name) && token == JsonToken.START_OBJECT) {
+          topology.readTransform(parser);
+        } else if (FIELD_OBJECTS.equals(name) && token == JsonToken.START_OBJECT) {
+          readObjects(parser, objects);
+        } else {
+          parser.skipChildren();
+        }
+      }
+      topology.decodeArcs();
+      List<Feature> features = new LinkedList<Feature>();
+      CoordinateBuffer coordinates = new CoordinateBuffer();
+      for (GeometryObject object : objects) {
+        Geometry g = topology.buildGeometry(object, coordinates);
+        features.add(new Graphic(g, symbol, object.attributes));
+      }
+      return features;
+    } finally {
+      parser.close();
+    }
+  }
+
+  /**
+   * { "countries": { "type": "GeometryCollection", "geometries": [...] }, ... }
+   */
+  private void readObjects(JsonParser parser, List<GeometryObject> objects) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (token == JsonToken.START_OBJECT && (objectName == null || objectName.equals(name))) {
+        readGeometryObject(parser, objects);
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  /**
+   * Reads a geometry object, adding it to the list, or adding its members if it is a
+   * GeometryCollection. The parser must be positioned on the opening brace.
+   */
+  private void readGeometryObject(JsonParser parser, List<GeometryObject> objects) throws IOException {
+    GeometryObject object = new GeometryObject();
+    List<GeometryObject> members = null;
+    boolean typed = false;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (FIELD_TYPE.equals(name)) {
+        // a null type is a feature without geometry, not a type named "null"
+        typed = true;
+        object.type = token == JsonToken.VALUE_NULL ? null : parser.getText();
+      } else if (FIELD_ARCS.equals(name) && token == JsonToken.START_ARRAY) {
+        readArcIndexes(parser, object);
+      } else if (FIELD_COORDINATES.equals(name) && token == JsonToken.START_ARRAY) {
+        readPositions(parser, object);
+      } else if (FIELD_PROPERTIES.equals(name)) {
+        object.attributes = parseProperties(parser);
+      } else if (FIELD_GEOMETRIES.equals(name) && token == JsonToken.START_ARRAY) {
+        members = new ArrayList<GeometryObject>();
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+          if (token == JsonToken.START_OBJECT) {
+            readGeometryObject(parser, members);
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (members != null) {
+      objects.addAll(members);
+    } else if (typed) {
+      objects.add(object);
+    }
+  }
+
+  /**
+   * Reads the "arcs" member of a geometry, whatever its nesting depth: each innermost
+   * array of indexes is a line or a ring, and each array of those ends a polygon.
+   *
+   * @return the nesting depth of the array: 1 for a line or a ring, 2 for a list of them.
+   */
+  private int readArcIndexes(JsonParser parser, GeometryObject object) throws IOException {
+    int[] indexes = new int[8];
+    int count = 0;
+    int childDepth = 0;
+    JsonToken token;
+    while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+      if (token == JsonToken.START_ARRAY) {
+        childDepth = Math.max(childDepth, readArcIndexes(parser, object));
+      } else if (token == JsonToken.VALUE_NUMBER_INT) {
+        if (count == indexes.length) {
+          indexes = Arrays.copyOf(indexes, count * 2);
+        }
+        indexes[count++] = parser.getIntValue();
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (count > 0) {
+      object.paths.add(Arrays.copyOf(indexes, count));
+    }
+    if (childDepth == 1) {
+      object.polygonEnds.add(Integer.valueOf(object.paths.size()));
+    }
+    return childDepth + 1;
+  }
+
+  /**
+   * Reads the "coordinates" member of a Point or a MultiPoint.
+   */
+  private void readPositions(JsonParser parser, GeometryObject object) throws IOException {
+    JsonToken token = parser.nextToken();
+    if (token == JsonToken.START_ARRAY) {
+      do {
+        readPositions(parser, object);
+      } while (parser.nextToken() == JsonToken.START_ARRAY);
+      return;
+    }
+    double[] position = new double[2];
+    int count = 0;
+    while (token != JsonToken.END_ARRAY && token != null) {
+      if (count < 2 && (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT)) {
+        position[count++] = DecimalLexer.readDouble(parser);
+      } else {
+        parser.skipChildren();
+      }
+      token = parser.nextToken();
+    }
+    if (count == 2) {
+      object.positions.add(position);
+    }
+  }
+
+  private Map<String, Object> parseProperties(JsonParser parser) throws IOException {
+    Map<String, Object> properties = new HashMap<String, Object>();
+    if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return properties;
+    }
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (token == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() == NumberType.INT) {
+        properties.put(name, parser.getIntValue());
+      } else if (token == JsonToken.VALUE_NUMBER_FLOAT) {
+        properties.put(name, parser.getDoubleValue());
+      } else if (token == JsonToken.VALUE_STRING) {
+        properties.put(name, parser.getText());
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return properties;
+  }
+
+  /**
+   * A geometry of the topology, whose lines and rings are still arc indexes.
+   */
+  private static final class GeometryObject {
+
+    String type;
+    final List<int[]> paths = new ArrayList<int[]>();
+    // index past the last path of each polygon
+    final List<Integer> polygonEnds = new ArrayList<Integer>();
+    final List<double[]> positions = new ArrayList<double[]>();
+    Map<String, Object> attributes = new HashMap<String, Object>();
+  }
+
+  /**
+   * The arcs of a topology and its quantization transform.
+   */
+  private final class Topology {
+
+    // positions of all arcs, one after the other
+    private double[] x = new double[1024];
+    private double[] y = new double[1024];
+    private int pointCount = 0;
+
+    // index past the last position of each arc
+    private int[] arcEnds = new int[256];
+    private int arcCount = 0;
+
+    // quantization transform, or null if positions are not quantized
+    private double[] scale = null;
+    private double[] translate = null;
+
+    /**
+     * "arcs": [ [[x, y], [dx, dy], ...], ... ]
+     */
+    void readArcs(JsonParser parser) throws IOException {
+      while (parser.nextToken() == JsonToken.START_ARRAY) {
+        while (parser.nextToken() == JsonToken.START_ARRAY) {
+          JsonToken token = parser.nextToken();
+          double px = isNumber(token) ? DecimalLexer.readDouble(parser) : 0;
+          token = isNumber(token) ? parser.nextToken() : token;
+          double py = isNumber(token) ? DecimalLexer.readDouble(parser) : 0;
+          token = isNumber(token) ? parser.nextToken() : token;
+          while (token != JsonToken.END_ARRAY && token != null) {
+            parser.skipChildren();
+            token = parser.nextToken();
+          }
+          addPoint(px, py);
+        }
+        if (arcCount == arcEnds.length) {
+          arcEnds = Arrays.copyOf(arcEnds, arcCount * 2);
+        }
+        arcEnds[arcCount++] = pointCount;
+      }
+    }
+
+    /**
+     * "transform": { "scale": [sx, sy], "translate": [tx, ty] }
+     */
+    void readTransform(JsonParser parser) throws IOException {
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (FIELD_SCALE.equals(name) && token == JsonToken.START_ARRAY) {
+          scale = readPair(parser);
+        } else if (FIELD_TRANSLATE.equals(name) && token == JsonToken.START_ARRAY) {
+          translate = readPair(parser);
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+
+    /**
+     * Turns quantized, delta-encoded arc positions into absolute coordinates, in place.
+     */
+    void decodeArcs() {
+      if (scale == null) {
+        return;
+      }
+      double tx = translate == null ? 0 : translate[0];
+      double ty = translate == null ? 0 : translate[1];
+      int start = 0;
+      for (int arc = 0; arc < arcCount; arc++) {
+        double qx = 0;
+        double qy = 0;
+        for (int i = start; i < arcEnds[arc]; i++) {
+          qx += x[i];
+          qy += y[i];
+          x[i] = qx * scale[0] + tx;
+          y[i] = qy * scale[1] + ty;
+        }
+        start = arcEnds[arc];
+      }
+    }
+
+    /**
+     * Builds and projects the geometry of an object from the decoded arcs.
+     * @return the geometry, or null if the object has none.
+     */
+    Geometry buildGeometry(GeometryObject object, CoordinateBuffer coordinates) {
+      coordinates.reset();
+      String type = object.type;
+      if (TYPE_POINT.equals(type) || TYPE_MULTI_POINT.equals(type)) {
+        for (double[] position : object.positions) {
+          coordinates.addPoint(transformX(position[0]), transformY(position[1]));
+        }
+      } else if (TYPE_LINE_STRING.equals(type) || TYPE_MULTI_LINE_STRING.equals(type)
+          || TYPE_POLYGON.equals(type) || TYPE_MULTI_POLYGON.equals(type)) {
+        int polygon = 0;
+        for (int p = 0; p < object.paths.size(); p++) {
+          int[] path = object.paths.get(p);
+          for (int i = 0; i < path.length; i++) {
+            addArc(coordinates, path[i], i == 0);
+          }
+          coordinates.endPath();
+          while (polygon < object.polygonEnds.size() && object.polygonEnds.get(polygon).intValue() == p + 1) {
+            coordinates.endPolygon();
+            polygon++;
+          }
+        }
+      } else {
+        return null;
+      }
+      projector.project(coordinates);
+      if (TYPE_POLYGON.equals(type) || TYPE_MULTI_POLYGON.equals(type)) {
+        // wound the Esri way, as GeoJsonParser does; projections to Web Mercator keep the winding
+        coordinates.orientRings();
+      }
+      Geometry g;
+      if (TYPE_POINT.equals(type)) {
+        g = coordinates.toPoint();
+      } else if (TYPE_MULTI_POINT.equals(type)) {
+        g = coordinates.toMultiPoint();
+      } else if (TYPE_LINE_STRING.equals(type) || TYPE_MULTI_LINE_STRING.equals(type)) {
+        g = coordinates.toPolyline();
+      } else {
+        g = coordinates.toPolygon();
+      }
+      return projector.project(g);
+    }
+
+    /**
+     * Appends the positions of an arc to the current path. A negative index refers to
+     * the reversed arc ~index. Except for the first arc of a path, the first position
+     * of the arc is the last one of the previous arc, so it is not repeated.
+     */
+    private void addArc(CoordinateBuffer coordinates, int index, boolean first) {
+      boolean reversed = index < 0;
+      int arc = reversed ? ~index : index;
+      if (arc >= arcCount) {
+        throw new IllegalArgumentException("arc index out of range: " + index);
+      }
+      int start = arc == 0 ? 0 : arcEnds[arc - 1];
+      int end = arcEnds[arc];
+      int skip = first ? 0 : 1;
+      if (reversed) {
+        for (int i = end - 1 - skip; i >= start; i--) {
+          coordinates.addPoint(x[i], y[i]);
+        }
+      } else {
+        for (int i = start + skip; i < end; i++) {
+          coordinates.addPoint(x[i], y[i]);
+        }
+      }
+    }
+
+    private double transformX(double qx) {
+      return scale == null ? qx : qx * scale[0] + (translate == null ? 0 : translate[0]);
+    }
+
+    private double transformY(double qy) {
+      return scale == null ? qy : qy * scale[1] + (translate == null ? 0 : translate[1]);
+    }
+
+    private void addPoint(double px, double py) {
+      if (pointCount == x.length) {
+        x = Arrays.copyOf(x, pointCount * 2);
+        y = Arrays.copyOf(y, pointCount * 2);
+      }
+      x[pointCount] = px;
+      y[pointCount] = py;
+      pointCount++;
+    }
+
+    private double[] readPair(JsonParser parser) throws IOException {
+      double[] pair = new double[2];
+      int count = 0;
+      JsonToken token;
+      while ((token = parser.nextToken()) != JsonToken.END_ARRAY && token != null) {
+        if (count < 2 && isNumber(token)) {
+          pair[count++] = DecimalLexer.readDouble(parser);
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return pair;
+    }
+
+    private boolean isNumber(JsonToken token) {
+      return token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT;
+    }
+  }
+}